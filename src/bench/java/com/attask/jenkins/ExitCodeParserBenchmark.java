@@ -0,0 +1,43 @@
+package com.attask.jenkins;
+
+import hudson.model.Result;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exit code to {@link Result} mapping, once per script run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExitCodeParserBenchmark {
+	@Param({"NONE", "LESS_THAN", "GREATER_THAN", "EXACTLY", "NON_ZERO", "CUSTOM"})
+	public ErrorMode mode;
+
+	private String range;
+	private ExitCodeMatcher errorMatcher;
+	private ExitCodeMatcher unstableMatcher;
+	private int exitCode;
+
+	@Setup
+	public void setUp() {
+		range = mode == ErrorMode.CUSTOM ? "-10, 1 > 5, 20 > 400, 500 > 1000, 1002, 1004, 2000 > 3000" : "10";
+		errorMatcher = ExitCodeMatcher.compile(mode, range);
+		unstableMatcher = ExitCodeMatcher.compile(ErrorMode.EXACTLY, "2");
+		exitCode = 450;
+	}
+
+	@Benchmark
+	public Result findResult() {
+		return ExitCodeParser.findResult(exitCode, mode, range, ErrorMode.EXACTLY, "2");
+	}
+
+	@Benchmark
+	public Result findResultCompiled() {
+		return ExitCodeParser.findResult(exitCode, errorMatcher, unstableMatcher);
+	}
+}
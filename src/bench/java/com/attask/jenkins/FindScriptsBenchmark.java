@@ -0,0 +1,77 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovering the runnable scripts in userContent, over a synthetic tree of 100 files per directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FindScriptsBenchmark {
+	private static final int FILES_PER_DIRECTORY = 100;
+
+	@Param({"1000", "10000", "100000"})
+	public int fileCount;
+
+	private File root;
+	private FileTypeMatcher fileTypes;
+	private ScriptIndex index;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		root = File.createTempFile("userContent", "");
+		if(!root.delete() || !root.mkdirs()) {
+			throw new IOException("Unable to create " + root);
+		}
+
+		for (int i = 0; i < fileCount; i++) {
+			File directory = new File(root, "dir" + (i / FILES_PER_DIRECTORY));
+			if(!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Unable to create " + directory);
+			}
+			String extension = i % 4 == 0 ? ".sh" : ".txt";
+			if(!new File(directory, "file" + i + extension).createNewFile()) {
+				throw new IOException("Unable to create file " + i);
+			}
+		}
+
+		fileTypes = FileTypeMatcher.compile(".sh .bat");
+		index = new ScriptIndex(root, fileTypes);
+		index.rebuild();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException, InterruptedException {
+		new FilePath(root).deleteRecursive();
+	}
+
+	@Benchmark
+	public Map<String, Script> findScriptsOnMaster() throws IOException, InterruptedException {
+		return new FindScriptsOnMaster(new FilePath(root), fileTypes).invoke(root, null);
+	}
+
+	@Benchmark
+	public void scriptIndexRefresh() {
+		index.refresh();
+	}
+
+	@Benchmark
+	public Script scriptIndexFind() {
+		return index.find(new File(root, "dir0/file0.sh").getAbsolutePath());
+	}
+
+	@Benchmark
+	public ScriptIndex.SearchResult scriptIndexSearch() {
+		return index.search("file1", ScriptBuilder.DescriptorImpl.DEFAULT_SEARCH_LIMIT);
+	}
+}
@@ -0,0 +1,51 @@
+package com.attask.jenkins;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the file named by "Inject from", once per script run that sets it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InjectPropertiesBenchmark {
+	@Param({"10", "1000", "10000"})
+	public int keyCount;
+
+	private byte[] properties;
+	private byte[] json;
+
+	@Setup
+	public void setUp() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < keyCount; i++) {
+			builder.append("INJECTED_VARIABLE_").append(i).append('=').append("some value number ").append(i).append('\n');
+		}
+		properties = builder.toString().getBytes("ISO-8859-1");
+
+		builder = new StringBuilder("{");
+		for (int i = 0; i < keyCount; i++) {
+			builder.append(i == 0 ? "" : ",").append("\n\"INJECTED_VARIABLE_").append(i).append("\": \"some value number ").append(i).append('"');
+		}
+		json = builder.append("\n}").toString().getBytes("UTF-8");
+	}
+
+	@Benchmark
+	public Map<String, String> readProperties() throws IOException {
+		return InjectedPropertiesReader.readProperties(new ByteArrayInputStream(properties));
+	}
+
+	@Benchmark
+	public Map<String, String> readJson() throws IOException {
+		return InjectedPropertiesReader.readJson(new InputStreamReader(new ByteArrayInputStream(json), "UTF-8"), Integer.MAX_VALUE);
+	}
+}
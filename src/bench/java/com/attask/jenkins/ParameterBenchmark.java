@@ -0,0 +1,57 @@
+package com.attask.jenkins;
+
+import hudson.EnvVars;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting and expanding a script's parameters, once per script run.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParameterBenchmark {
+	@Param({"5", "50"})
+	public int parameterCount;
+
+	private List<Parameter> parameters;
+	private EnvVars envVars;
+
+	@Setup
+	public void setUp() {
+		envVars = new EnvVars();
+		for (int i = 0; i < 200; i++) {
+			envVars.put("VAR_" + i, "value of variable " + i);
+		}
+
+		parameters = new ArrayList<Parameter>(parameterCount);
+		for (int i = 0; i < parameterCount; i++) {
+			if(i % 2 == 0) {
+				parameters.add(new Parameter("KEY_" + i + "=prefix-${VAR_" + i + "}-$VAR_" + (i + 1) + "-suffix"));
+			} else {
+				parameters.add(new Parameter("KEY_" + i + "=a literal value with no variables"));
+			}
+		}
+	}
+
+	@Benchmark
+	public void keysAndValues(Blackhole blackhole) {
+		for (Parameter parameter : parameters) {
+			blackhole.consume(parameter.getParameterKey());
+			blackhole.consume(parameter.getParameterValue());
+		}
+	}
+
+	@Benchmark
+	public Map<String, String> injectParameters() {
+		return ScriptBuilder.injectParameters(parameters, envVars);
+	}
+}
@@ -0,0 +1,65 @@
+package com.attask.jenkins;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Serves the output of Post-Matrix scripts that were run in the background, after the build's console was closed.
+ */
+public class BackgroundScriptLogAction implements Action {
+	public static final String LOG_FILE_NAME = "postMatrixScripts.log";
+
+	private transient volatile boolean running;
+
+	/**
+	 * Whether the build's background scripts are running now, so their output is going to {@link #logFileOf(AbstractBuild)}.
+	 */
+	public static boolean isRunning(AbstractBuild<?, ?> build) {
+		BackgroundScriptLogAction action = build.getAction(BackgroundScriptLogAction.class);
+		return action != null && action.running;
+	}
+
+	public static File logFileOf(AbstractBuild<?, ?> build) {
+		return new File(build.getRootDir(), LOG_FILE_NAME);
+	}
+
+	void setRunning(boolean running) {
+		this.running = running;
+	}
+
+	public void doIndex(StaplerRequest request, StaplerResponse response) throws IOException {
+		AbstractBuild<?, ?> build = request.findAncestorObject(AbstractBuild.class);
+		File logFile = build == null ? null : logFileOf(build);
+		if(logFile == null || !logFile.isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		response.setContentType("text/plain;charset=" + build.getCharset().name());
+		FileInputStream input = new FileInputStream(logFile);
+		try {
+			IOUtils.copy(input, response.getOutputStream());
+		} finally {
+			input.close();
+		}
+	}
+
+	public String getIconFileName() {
+		return "notepad.png";
+	}
+
+	public String getDisplayName() {
+		return "Post-Matrix Script Output";
+	}
+
+	public String getUrlName() {
+		return "postMatrixScripts";
+	}
+}
@@ -0,0 +1,88 @@
+package com.attask.jenkins;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Remembers a running build's environment so each script doesn't have to ask every contributor (and the node) for it again.
+ * <p/>
+ * A snapshot is reused as long as no build wrapper has set up a new environment and the only contributing actions added since
+ * it was taken are {@link InjectPropertiesAction}s. Those are applied on top of a copy of the snapshot, in the order they were added,
+ * the same as {@link AbstractBuild#getEnvironment(TaskListener)} would. Any other change recomputes it.
+ * Snapshots are never modified once taken; callers get their own copy.
+ */
+public class BuildEnvironmentCache {
+	private static final Map<AbstractBuild<?, ?>, Snapshot> SNAPSHOTS = Collections.synchronizedMap(new WeakHashMap<AbstractBuild<?, ?>, Snapshot>());
+
+	private BuildEnvironmentCache() {
+	}
+
+	public static Snapshot get(AbstractBuild<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+		List<EnvironmentContributingAction> actions = build.getActions(EnvironmentContributingAction.class);
+		int environments = build.getEnvironments().size();
+		if(!build.isBuilding()) {
+			SNAPSHOTS.remove(build);
+			return new Snapshot(build.getEnvironment(listener), build.getBuildVariables(), actions, environments);
+		}
+
+		Snapshot snapshot = SNAPSHOTS.get(build);
+		if(snapshot == null || !snapshot.canBeExtendedTo(actions, environments)) {
+			snapshot = new Snapshot(build.getEnvironment(listener), build.getBuildVariables(), actions, environments);
+			SNAPSHOTS.put(build, snapshot);
+		} else if(snapshot.actions.size() < actions.size()) {
+			snapshot = snapshot.extendTo(build, actions);
+			SNAPSHOTS.put(build, snapshot);
+		}
+		return snapshot;
+	}
+
+	public static final class Snapshot {
+		private final EnvVars environment;
+		private final Map<String, String> buildVariables;
+		private final List<EnvironmentContributingAction> actions;
+		private final int environments;
+
+		private Snapshot(EnvVars environment, Map<String, String> buildVariables, List<EnvironmentContributingAction> actions, int environments) {
+			this.environment = environment;
+			this.buildVariables = Collections.unmodifiableMap(new HashMap<String, String>(buildVariables));
+			this.actions = new ArrayList<EnvironmentContributingAction>(actions);
+			this.environments = environments;
+		}
+
+		/**
+		 * @return A copy of the environment the caller is free to change.
+		 */
+		public EnvVars newEnvVars() {
+			return new EnvVars(environment);
+		}
+
+		public Map<String, String> getBuildVariables() {
+			return buildVariables;
+		}
+
+		private boolean canBeExtendedTo(List<EnvironmentContributingAction> current, int currentEnvironments) {
+			if(currentEnvironments != environments || current.size() < actions.size()) {
+				return false;
+			}
+			for (int i = 0; i < current.size(); i++) {
+				if(i < actions.size() ? current.get(i) != actions.get(i) : !(current.get(i) instanceof InjectPropertiesAction)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private Snapshot extendTo(AbstractBuild<?, ?> build, List<EnvironmentContributingAction> current) {
+			EnvVars extended = new EnvVars(environment);
+			for (int i = actions.size(); i < current.size(); i++) {
+				current.get(i).buildEnvVars(build, extended);
+			}
+			return new Snapshot(extended, buildVariables, current, environments);
+		}
+	}
+}
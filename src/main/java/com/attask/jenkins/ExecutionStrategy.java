@@ -0,0 +1,23 @@
+package com.attask.jenkins;
+
+/**
+ * How a script's process is started.
+ */
+public enum ExecutionStrategy {
+	/** A new shell (or cmd) is launched for every script. */
+	PROCESS("New Process"),
+	/** Scripts are handed to a shell that stays running on the node for the rest of the build. See {@link WarmShell}. */
+	WARM_SHELL("Warm Shell"),
+	/** .groovy scripts run inside the JVM that holds the workspace. See {@link GroovyScriptRunner}. Other scripts get a new process. */
+	GROOVY("In-Process Groovy");
+
+	private final String humanReadable;
+
+	private ExecutionStrategy(String humanReadable) {
+		this.humanReadable = humanReadable;
+	}
+
+	public String getHumanReadable() {
+		return humanReadable;
+	}
+}
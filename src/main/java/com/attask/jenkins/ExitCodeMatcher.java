@@ -0,0 +1,131 @@
+package com.attask.jenkins;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An {@link ErrorMode} and its range, parsed once so matching an exit code doesn't allocate or parse anything.
+ * <p/>
+ * Custom ranges are stored as sorted, non-overlapping intervals and matched with a binary search.
+ */
+public final class ExitCodeMatcher implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final ExitCodeMatcher NEVER = new ExitCodeMatcher(ErrorMode.NONE, 0, new int[0], new int[0]);
+
+	private final ErrorMode mode;
+	private final int value;
+	private final int[] lows;
+	private final int[] highs;
+
+	private ExitCodeMatcher(ErrorMode mode, int value, int[] lows, int[] highs) {
+		this.mode = mode;
+		this.value = value;
+		this.lows = lows;
+		this.highs = highs;
+	}
+
+	/**
+	 * Parses the given range for the given mode.
+	 *
+	 * @throws IllegalArgumentException If the range isn't valid for the mode.
+	 */
+	public static ExitCodeMatcher compile(ErrorMode mode, String range) {
+		if(mode == null || mode == ErrorMode.NONE) {
+			return NEVER;
+		}
+
+		range = range == null ? "" : range.replaceAll("\\s+", "");//Strip out the whitespace
+		switch (mode) {
+			case LESS_THAN:
+			case GREATER_THAN:
+			case EXACTLY:
+				return new ExitCodeMatcher(mode, parse(range), null, null);
+			case NON_ZERO:
+				return new ExitCodeMatcher(mode, 0, null, null);
+			case CUSTOM:
+				return compileCustom(range);
+			default:
+				throw new UnsupportedOperationException("No case for " + mode); //Just to make sure we don't ever forget to add new cases.
+		}
+	}
+
+	private static ExitCodeMatcher compileCustom(String range) {
+		List<int[]> intervals = new ArrayList<int[]>();
+		for (String s : range.split(",")) { //a trailing comma has always been allowed
+			String[] rangeSplit = s.split(">", 2);
+			int left = parse(rangeSplit[0]);
+			int right = left;
+			if(rangeSplit.length > 1) {
+				right = parse(rangeSplit[1]);
+				if(right < left) {
+					throw new IllegalArgumentException("'" + s + "' is not a valid range. The lower bound must come first.");
+				}
+			}
+			intervals.add(new int[]{left, right});
+		}
+
+		Collections.sort(intervals, new Comparator<int[]>() {
+			public int compare(int[] interval1, int[] interval2) {
+				return interval1[0] < interval2[0] ? -1 : (interval1[0] == interval2[0] ? 0 : 1);
+			}
+		});
+
+		//Merge overlapping and adjacent intervals so a binary search on the lower bounds is enough.
+		List<int[]> merged = new ArrayList<int[]>();
+		for (int[] interval : intervals) {
+			int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if(last != null && (long) interval[0] <= (long) last[1] + 1) {
+				last[1] = Math.max(last[1], interval[1]);
+			} else {
+				merged.add(interval);
+			}
+		}
+
+		int[] lows = new int[merged.size()];
+		int[] highs = new int[merged.size()];
+		for (int i = 0; i < merged.size(); i++) {
+			lows[i] = merged.get(i)[0];
+			highs[i] = merged.get(i)[1];
+		}
+		return new ExitCodeMatcher(ErrorMode.CUSTOM, 0, lows, highs);
+	}
+
+	private static int parse(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("'" + value + "' is not a valid exit code.");
+		}
+	}
+
+	public boolean matches(int exitCode) {
+		switch (mode) {
+			case NONE:
+				return false;
+			case LESS_THAN:
+			case GREATER_THAN:
+			case EXACTLY:
+				return mode.matches(exitCode, value);
+			case NON_ZERO:
+				return mode.matches(exitCode);
+			case CUSTOM:
+				int i = Arrays.binarySearch(lows, exitCode);
+				if(i >= 0) {
+					return true;
+				}
+				int below = -i - 2; //the interval with the greatest lower bound less than the exit code
+				return below >= 0 && exitCode <= highs[below];
+			default:
+				throw new UnsupportedOperationException("No case for " + mode);
+		}
+	}
+
+	public ErrorMode getMode() {
+		return mode;
+	}
+}
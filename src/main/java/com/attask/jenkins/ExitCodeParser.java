@@ -9,48 +9,25 @@ import hudson.model.Result;
  */
 public class ExitCodeParser {
 	public static Result findResult(int exitCode, ErrorMode errorMode, String errorRange, ErrorMode unstableMode, String unstableRange) {
-		if(errorMode != ErrorMode.NONE) {
-			if(exitCodeMatches(exitCode, errorMode, errorRange)) {
-				return Result.FAILURE;
-			}
+		return findResult(exitCode, ExitCodeMatcher.compile(errorMode, errorRange), ExitCodeMatcher.compile(unstableMode, unstableRange));
+	}
+
+	/**
+	 * Same as {@link #findResult(int, ErrorMode, String, ErrorMode, String)} but with the ranges already compiled.
+	 */
+	public static Result findResult(int exitCode, ExitCodeMatcher errorMatcher, ExitCodeMatcher unstableMatcher) {
+		if(errorMatcher.matches(exitCode)) {
+			return Result.FAILURE;
 		}
 
-		if(unstableMode != ErrorMode.NONE) {
-			if(exitCodeMatches(exitCode, unstableMode, unstableRange)) {
-				return Result.UNSTABLE;
-			}
+		if(unstableMatcher.matches(exitCode)) {
+			return Result.UNSTABLE;
 		}
 
 		return Result.SUCCESS;
 	}
 
 	static boolean exitCodeMatches(int exitCode, ErrorMode mode, String range) {
-		range = range.replaceAll("\\s+", "");//Strip out the whitespace
-		switch (mode) {
-			case LESS_THAN:
-			case GREATER_THAN:
-			case EXACTLY:
-				return mode.matches(exitCode, Integer.parseInt(range));
-			case NON_ZERO:
-				return mode.matches(exitCode);
-			case CUSTOM:
-				String[] commaSplit = range.split(",");
-				for (String s : commaSplit) {
-					String[] rangeSplit = s.split(">", 2);
-					int left = Integer.parseInt(rangeSplit[0]);
-					if(rangeSplit.length > 1) {
-						int right = Integer.parseInt(rangeSplit[1]);
-						if(exitCode >= left && exitCode <= right) {
-							return true;
-						}
-					} else if(left == exitCode) {
-						return true;
-					}
-				}
-				break;
-			default:
-				throw new UnsupportedOperationException("No case for " + mode); //Just to make sure we don't ever forget to add new cases.
-		}
-		return false;
+		return ExitCodeMatcher.compile(mode, range).matches(exitCode);
 	}
 }
@@ -0,0 +1,159 @@
+package com.attask.jenkins;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a file in userContent is a runnable script, from the whitespace separated file types in the global configuration.
+ * <p/>
+ * <ul>
+ *     <li><code>.*</code> matches any executable file.</li>
+ *     <li>Types containing <code>*</code> are globs matched against the whole file name, e.g. <code>build-*.sh</code>.
+ *     <code>?</code> and <code>[...]</code> work in them too, with <code>[!...]</code> for a negated class as in the shell.</li>
+ *     <li>Anything else is a suffix, e.g. <code>.sh</code>, even if it contains <code>?</code> or <code>[</code>.</li>
+ * </ul>
+ * The suffixes are compiled into a trie of reversed suffixes, and the globs into a single pattern,
+ * so checking a file doesn't depend on how many types there are.
+ * Hidden files never match.
+ */
+public final class FileTypeMatcher implements Serializable {
+	private static final long serialVersionUID = 1L;
+	public static final String ANY_EXECUTABLE = ".*";
+
+	private final String fileTypes;
+	private final boolean anyExecutable;
+	private final Node suffixes = new Node();
+	private final Pattern globs;
+
+	private FileTypeMatcher(String fileTypes) {
+		this.fileTypes = fileTypes;
+
+		boolean executable = false;
+		StringBuilder globPattern = new StringBuilder();
+		for (String fileType : fileTypes.trim().split("\\s+")) {
+			if(fileType.isEmpty()) {
+				continue;
+			}
+			if(fileType.equals(ANY_EXECUTABLE)) {
+				executable = true;
+			} else if(isGlob(fileType)) {
+				globPattern.append(globPattern.length() == 0 ? "" : "|").append(globToRegex(fileType));
+			} else {
+				suffixes.add(fileType);
+			}
+		}
+		this.anyExecutable = executable;
+		this.globs = globPattern.length() == 0 ? null : Pattern.compile(globPattern.toString());
+	}
+
+	public static FileTypeMatcher compile(String fileTypes) {
+		return new FileTypeMatcher(fileTypes == null ? "" : fileTypes);
+	}
+
+	public boolean matches(File file) {
+		String name = file.getName();
+		if(name.startsWith(".")) {
+			return false;
+		}
+		return suffixes.matchesSuffixOf(name)
+				|| (globs != null && globs.matcher(name).matches())
+				|| (anyExecutable && file.canExecute());
+	}
+
+	private static boolean isGlob(String fileType) {
+		return fileType.indexOf('*') >= 0;
+	}
+
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder("(?:");
+		StringBuilder literal = new StringBuilder();
+		boolean inClass = false;
+		char[] chars = glob.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			char c = chars[i];
+			if(inClass) {
+				if(c == ']') {
+					inClass = false;
+				} else if(c == '\\' || c == '[' || c == '&') {
+					//Literal in a glob's class, but special in a regex's.
+					regex.append('\\');
+				}
+				regex.append(c);
+				continue;
+			}
+			if(c == '*' || c == '?' || c == '[') {
+				if(literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				if(c == '*') {
+					regex.append(".*");
+				} else if(c == '?') {
+					regex.append('.');
+				} else {
+					regex.append('[');
+					if(i + 1 < chars.length && chars[i + 1] == '!') {
+						regex.append('^');
+						i++;
+					}
+					inClass = true;
+				}
+			} else {
+				literal.append(c);
+			}
+		}
+		if(inClass) {
+			throw new IllegalArgumentException("Unterminated [ in " + glob);
+		}
+		if(literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.append(')').toString();
+	}
+
+	@Override
+	public String toString() {
+		return fileTypes;
+	}
+
+	/**
+	 * A trie of suffixes, walked from the end of the name.
+	 */
+	private static class Node implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Map<Character, Node> children = new HashMap<Character, Node>();
+		private boolean terminal;
+
+		private void add(String suffix) {
+			Node node = this;
+			for (int i = suffix.length() - 1; i >= 0; i--) {
+				char c = suffix.charAt(i);
+				Node child = node.children.get(c);
+				if(child == null) {
+					child = new Node();
+					node.children.put(c, child);
+				}
+				node = child;
+			}
+			node.terminal = true;
+		}
+
+		private boolean matchesSuffixOf(String name) {
+			Node node = this;
+			for (int i = name.length() - 1; i >= 0; i--) {
+				node = node.children.get(name.charAt(i));
+				if(node == null) {
+					return false;
+				}
+				if(node.terminal) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
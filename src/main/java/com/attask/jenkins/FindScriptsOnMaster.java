@@ -16,9 +16,9 @@ import java.util.*;
  */
 public class FindScriptsOnMaster implements FilePath.FileCallable<Map<String, Script>> {
 	private final FilePath userContent;
-	private final List<String> fileTypes;
+	private final FileTypeMatcher fileTypes;
 
-	public FindScriptsOnMaster(FilePath userContent, List<String> fileTypes) {
+	public FindScriptsOnMaster(FilePath userContent, FileTypeMatcher fileTypes) {
 		this.userContent = userContent;
 		this.fileTypes = fileTypes;
 	}
@@ -32,7 +32,7 @@ public class FindScriptsOnMaster implements FilePath.FileCallable<Map<String, Sc
 		return Collections.unmodifiableMap(result);
 	}
 
-	private List<File> findFiles(File directory, final List<String> fileTypes) {
+	private List<File> findFiles(File directory, final FileTypeMatcher fileTypes) {
 		assert directory != null : "directory cannot be null";
 		assert directory.isDirectory() : "directory must be a directory";
 
@@ -41,16 +41,7 @@ public class FindScriptsOnMaster implements FilePath.FileCallable<Map<String, Sc
 				if(file.getName().startsWith(".")) {
 					return false;
 				}
-				if (file.isDirectory()) {
-					return true;
-				}
-				String name = file.getName();
-				for (String fileType : fileTypes) {
-					if (name.endsWith(fileType) || (fileType.equals(".*") && file.canExecute())) {
-						return true;
-					}
-				}
-				return false;
+				return file.isDirectory() || fileTypes.matches(file);
 			}
 		});
 
@@ -0,0 +1,78 @@
+package com.attask.jenkins;
+
+import hudson.Proc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A script running as a remote call rather than a process, so it can be waited on and killed by {@link ScriptWatchdog} like one.
+ * Killing it cancels the call, which interrupts it wherever it's running.
+ */
+public abstract class FutureProc<T> extends Proc {
+	private final Future<T> future;
+	private volatile T value;
+
+	protected FutureProc(Future<T> future) {
+		this.future = future;
+	}
+
+	/**
+	 * The exit code to report for what the call returned.
+	 */
+	protected abstract int exitCodeOf(T value);
+
+	/**
+	 * @return What the call returned, or null if it hasn't finished or was killed.
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	@Override
+	public boolean isAlive() throws IOException, InterruptedException {
+		return !future.isDone();
+	}
+
+	@Override
+	public void kill() throws IOException, InterruptedException {
+		future.cancel(true);
+	}
+
+	/**
+	 * @return The exit code, or -1 if it was killed.
+	 */
+	@Override
+	public int join() throws IOException, InterruptedException {
+		try {
+			value = future.get();
+			return exitCodeOf(value);
+		} catch (CancellationException e) {
+			return -1;
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@Override
+	public InputStream getStdout() {
+		return null;
+	}
+
+	@Override
+	public InputStream getStderr() {
+		return null;
+	}
+
+	@Override
+	public OutputStream getStdin() {
+		return null;
+	}
+}
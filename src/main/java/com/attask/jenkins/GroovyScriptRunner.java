@@ -0,0 +1,210 @@
+package com.attask.jenkins;
+
+import groovy.lang.Binding;
+import groovy.lang.GroovyClassLoader;
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.model.AbstractBuild;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.RemoteOutputStream;
+import hudson.util.StreamTaskListener;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a .groovy script inside the JVM that holds the workspace, the master's or a slave's, instead of starting a process.
+ * <p/>
+ * Compiled script classes are cached in each JVM by the SHA-1 of their contents, so a script is only compiled once per JVM
+ * until it changes or falls out of the cache.
+ * <p/>
+ * The script gets these variables:
+ * <ul>
+ *     <li><code>env</code>: the environment it would have had as a process.</li>
+ *     <li><code>parameters</code>: its expanded parameters.</li>
+ *     <li><code>workspace</code>: the workspace as a {@link File}.</li>
+ *     <li><code>out</code> and <code>listener</code>: the script's output, so <code>println</code> goes to the build log
+ *     through the same timeouts and output matching as a process's output.</li>
+ *     <li><code>build</code>: the running build. Only when the script runs on the master.</li>
+ * </ul>
+ * What the script returns decides its result. See {@link Outcome#of(Object)}.
+ */
+public class GroovyScriptRunner {
+	public static final String EXTENSION = ".groovy";
+	private static final int CACHED_CLASSES = 100;
+
+	private static final Map<String, Class<?>> CLASSES = Collections.synchronizedMap(new LinkedHashMap<String, Class<?>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Class<?>> eldest) {
+			return size() > CACHED_CLASSES;
+		}
+	});
+
+	private GroovyScriptRunner() {
+	}
+
+	public static boolean isGroovy(Script script) {
+		return script.getFile().getName().endsWith(EXTENSION);
+	}
+
+	/**
+	 * Starts the script in the workspace's JVM.
+	 *
+	 * @param output Where the script's output goes.
+	 * @return The running script. {@link Proc#kill()} only interrupts it, so a timeout can't stop a script that ignores interrupts.
+	 */
+	public static Run start(AbstractBuild<?, ?> build, FilePath workspace, String scriptName, String contents, Map<String, String> env, Map<String, String> parameters, OutputStream output) throws IOException {
+		RunScript callable = new RunScript(scriptName, contents, ScriptCache.sha1(contents), workspace.getRemote(), env, parameters, new RemoteOutputStream(output));
+		callable.build = build;
+		return new Run(workspace.getChannel().callAsync(callable));
+	}
+
+	/**
+	 * A running script. {@link #join()} returns the exit code the outcome stands for.
+	 */
+	public static class Run extends FutureProc<Outcome> {
+		private Run(Future<Outcome> future) {
+			super(future);
+		}
+
+		@Override
+		protected int exitCodeOf(Outcome outcome) {
+			return outcome.getExitCode();
+		}
+
+		/**
+		 * @return The result the script returned, or null if it should come from the exit code. Only valid after {@link #join()}.
+		 */
+		public Result getResult() {
+			Outcome outcome = getValue();
+			return outcome == null || outcome.result == null ? null : Result.fromString(outcome.result);
+		}
+	}
+
+	/**
+	 * What a script returned: an exit code to be matched like a process's, or a result to use as is.
+	 */
+	public static final class Outcome implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private static final Set<String> RESULTS = new HashSet<String>(Arrays.asList("SUCCESS", "UNSTABLE", "FAILURE", "NOT_BUILT", "ABORTED"));
+
+		private final int exitCode;
+		private final String result;
+
+		private Outcome(int exitCode, String result) {
+			this.exitCode = exitCode;
+			this.result = result;
+		}
+
+		static Outcome exitCode(int exitCode) {
+			return new Outcome(exitCode, null);
+		}
+
+		/**
+		 * <ul>
+		 *     <li>Nothing, <code>true</code> or anything not listed here is exit code 0.</li>
+		 *     <li><code>false</code> is exit code 1.</li>
+		 *     <li>A number is that exit code.</li>
+		 *     <li>A {@link Result}, or the name of one, is that result regardless of the exit code settings.</li>
+		 * </ul>
+		 */
+		static Outcome of(Object returned) {
+			if(returned instanceof Boolean) {
+				return exitCode((Boolean) returned ? 0 : 1);
+			}
+			if(returned instanceof Number) {
+				return exitCode(((Number) returned).intValue());
+			}
+			if(returned instanceof Result || (returned instanceof CharSequence && RESULTS.contains(returned.toString().trim().toUpperCase()))) {
+				String name = returned.toString().trim().toUpperCase();
+				return new Outcome("SUCCESS".equals(name) ? 0 : 1, name);
+			}
+			return exitCode(0);
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public String getResult() {
+			return result;
+		}
+	}
+
+	/**
+	 * Runs in the workspace's JVM. The build doesn't survive being sent to a slave, so it's only bound on the master.
+	 */
+	private static class RunScript implements Callable<Outcome, IOException> {
+		private static final long serialVersionUID = 1L;
+
+		private final String scriptName;
+		private final String contents;
+		private final String hash;
+		private final String workspace;
+		private final Map<String, String> env;
+		private final Map<String, String> parameters;
+		private final OutputStream output;
+		private transient AbstractBuild<?, ?> build;
+
+		private RunScript(String scriptName, String contents, String hash, String workspace, Map<String, String> env, Map<String, String> parameters, OutputStream output) {
+			this.scriptName = scriptName;
+			this.contents = contents;
+			this.hash = hash;
+			this.workspace = workspace;
+			this.env = new HashMap<String, String>(env);
+			this.parameters = new HashMap<String, String>(parameters);
+			this.output = output;
+		}
+
+		public Outcome call() throws IOException {
+			PrintStream out = new PrintStream(output, true, "UTF-8");
+			TaskListener taskListener = new StreamTaskListener(out);
+
+			Binding binding = new Binding();
+			binding.setVariable("env", env);
+			binding.setVariable("parameters", parameters);
+			binding.setVariable("workspace", new File(workspace));
+			binding.setVariable("out", out);
+			binding.setVariable("listener", taskListener);
+			if(build != null) {
+				binding.setVariable("build", build);
+			}
+
+			try {
+				return Outcome.of(InvokerHelper.createScript(compile(), binding).run());
+			} catch (Exception e) { //Groovy scripts can throw checked exceptions without declaring them
+				e.printStackTrace(out);
+				return Outcome.exitCode(1);
+			} catch (LinkageError e) {
+				e.printStackTrace(out);
+				return Outcome.exitCode(1);
+			} finally {
+				out.flush();
+			}
+		}
+
+		private Class<?> compile() {
+			Class<?> compiled = CLASSES.get(hash);
+			if(compiled == null) {
+				//Compiled outside the lock. Two builds compiling the same new script at once just both compile it.
+				GroovyClassLoader classLoader = new GroovyClassLoader(GroovyScriptRunner.class.getClassLoader());
+				compiled = classLoader.parseClass(contents, className(scriptName));
+				CLASSES.put(hash, compiled);
+			}
+			return compiled;
+		}
+
+		/**
+		 * Groovy names the script's class after the file, so stack traces point at the script.
+		 */
+		private static String className(String scriptName) {
+			String name = new File(scriptName).getName();
+			String className = name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+			return className.replaceAll("[^A-Za-z0-9_$]", "_") + EXTENSION;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import net.sf.json.JSON;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Reads the file a script injects properties from, on the node the file is on, and returns only the resulting map.
+ * <p/>
+ * Files ending in <code>.json</code> are read as a flat JSON object. Anything else is read as a <code>.properties</code> file.
+ * Either way the file is limited in size before it's read, and in the number of keys after.
+ */
+public class InjectedPropertiesReader implements FilePath.FileCallable<Map<String, String>> {
+	private static final long serialVersionUID = 1L;
+
+	private final int maxKeys;
+	private final long maxBytes;
+
+	public InjectedPropertiesReader(int maxKeys, long maxBytes) {
+		this.maxKeys = maxKeys;
+		this.maxBytes = maxBytes;
+	}
+
+	public Map<String, String> invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+		if(!file.isFile()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		if(file.length() > maxBytes) {
+			throw new IOException(file.getName() + " is " + file.length() + " bytes, which is more than the limit of " + maxBytes + " bytes.");
+		}
+
+		Map<String, String> result;
+		InputStream input = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if(file.getName().toLowerCase().endsWith(".json")) {
+				result = readJson(new InputStreamReader(input, "UTF-8"), maxKeys);
+			} else {
+				result = readProperties(input);
+			}
+		} finally {
+			input.close();
+		}
+
+		checkKeyCount(result.size(), maxKeys);
+		return result;
+	}
+
+	private static void checkKeyCount(int count, int maxKeys) throws IOException {
+		if(count > maxKeys) {
+			throw new IOException("More than the limit of " + maxKeys + " properties were injected.");
+		}
+	}
+
+	static Map<String, String> readProperties(InputStream input) throws IOException {
+		Properties injectedProperties = new Properties();
+		injectedProperties.load(input);
+
+		Map<String, String> result = new HashMap<String, String>(injectedProperties.size());
+		for (Map.Entry<Object, Object> entry : injectedProperties.entrySet()) {
+			result.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a flat JSON object. Values must be strings, numbers, booleans or null (which becomes an empty string).
+	 */
+	static Map<String, String> readJson(Reader reader, int maxKeys) throws IOException {
+		JSONObject json;
+		try {
+			json = JSONObject.fromObject(IOUtils.toString(reader));
+		} catch (JSONException e) {
+			throw new IOException("Invalid JSON: " + e.getMessage());
+		}
+		if(json.isNullObject()) {
+			throw new IOException("Expected a JSON object, not null.");
+		}
+		checkKeyCount(json.size(), maxKeys);
+
+		Map<String, String> result = new HashMap<String, String>(json.size() * 4 / 3 + 1);
+		for (Object key : json.keySet()) {
+			Object value = json.get(key);
+			if(value instanceof JSONNull) {
+				value = "";
+			} else if(value instanceof JSON) {
+				throw new IOException("Only flat objects are supported; '" + key + "' can't be an object or array.");
+			}
+			result.put(String.valueOf(key), String.valueOf(value));
+		}
+		return result;
+	}
+}
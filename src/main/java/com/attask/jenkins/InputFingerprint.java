@@ -0,0 +1,111 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import org.apache.tools.ant.DirectoryScanner;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A hash of everything a script run depends on: the script's contents, its expanded parameters,
+ * the node and workspace it runs in and the contents of the workspace files it declares as inputs.
+ * Two runs with the same fingerprint are expected to do the same thing.
+ * What the script wrote last time isn't part of it, so a workspace that was wiped in between still matches.
+ */
+public final class InputFingerprint {
+	private InputFingerprint() {
+	}
+
+	/**
+	 * @param workspace The workspace's path on the node. Concurrent builds get different ones (<code>workspace@2</code>).
+	 * @param inputs The hash of the workspace inputs from {@link WorkspaceInputs}, or null if there aren't any.
+	 */
+	public static String of(String scriptContents, Map<String, String> parameters, String node, String workspace, String inputs) {
+		MessageDigest digest = newDigest();
+		update(digest, "script", scriptContents);
+		for (Map.Entry<String, String> entry : new TreeMap<String, String>(parameters).entrySet()) {
+			update(digest, "parameter", entry.getKey() + "=" + entry.getValue());
+		}
+		update(digest, "node", node);
+		update(digest, "workspace", workspace);
+		update(digest, "inputs", inputs);
+		return Util.toHexString(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String field, String value) {
+		try {
+			digest.update(field.getBytes("UTF-8"));
+			digest.update((byte) 0);
+			if(value != null) {
+				digest.update(value.getBytes("UTF-8"));
+			}
+			digest.update((byte) 0);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Turns globs separated by commas or whitespace into the comma separated form Ant expects, or null if there aren't any.
+	 */
+	static String normalizeGlobs(String globs) {
+		if(globs == null || globs.trim().isEmpty()) {
+			return null;
+		}
+		return Util.join(Arrays.asList(globs.trim().split("[,\\s]+")), ",");
+	}
+
+	/**
+	 * Runs on the node. Hashes the path and contents of every file in the workspace matching the globs, in path order.
+	 * Files are read where they are, so only the hash comes back over the channel.
+	 */
+	public static class WorkspaceInputs implements FilePath.FileCallable<String> {
+		private static final long serialVersionUID = 1L;
+		private final String globs;
+
+		public WorkspaceInputs(String globs) {
+			this.globs = normalizeGlobs(globs);
+		}
+
+		public String invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+			MessageDigest digest = newDigest();
+			if(globs == null || !workspace.isDirectory()) {
+				return Util.toHexString(digest.digest());
+			}
+
+			DirectoryScanner scanner = Util.createFileSet(workspace, globs).getDirectoryScanner();
+			String[] paths = scanner.getIncludedFiles();
+			Arrays.sort(paths);
+
+			byte[] buffer = new byte[64 * 1024];
+			for (String path : paths) {
+				if(Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				update(digest, "file", path.replace('\\', '/'));
+				InputStream input = new FileInputStream(new File(workspace, path));
+				try {
+					int read;
+					while((read = input.read(buffer)) >= 0) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					input.close();
+				}
+			}
+			return Util.toHexString(digest.digest());
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.attask.jenkins;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how many scripts run on master at once, so a burst of builds running the same master script can't starve the UI and scheduler.
+ * <p/>
+ * A script takes a slot before it runs and gives it back when it's done. When they're all taken, scripts wait in line.
+ * In FIFO order the line is first come, first served. In fair order every job has its own line and the jobs take turns,
+ * so one job with many builds queued can't hold up the others.
+ * <p/>
+ * Scripts wait on their build's executor thread, never on a request thread, and the counts are read without taking the lock,
+ * so the UI and /scriptApi never wait on the queue.
+ */
+public class MasterExecutionQueue {
+	public static final int DEFAULT_SLOTS = 4;
+
+	//guarded by lines
+	private final Map<String, Deque<Ticket>> lines = new LinkedHashMap<String, Deque<Ticket>>();
+	private volatile int slots;
+	private volatile boolean fair;
+	private volatile int active;
+	private volatile int waiting;
+
+	private final AtomicLong runs = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+
+	/**
+	 * @param fair Whether jobs take turns, rather than scripts running in the order they arrived.
+	 */
+	public MasterExecutionQueue(int slots, boolean fair) {
+		resize(slots, fair);
+	}
+
+	/**
+	 * Changes the limit in place, so scripts already running still count against it.
+	 * If it went up, waiting scripts take the new slots right away. If it went down, no new script starts until enough have finished.
+	 * Switching between FIFO and fair order only affects scripts that start waiting afterward.
+	 */
+	public void resize(int slots, boolean fair) {
+		if(slots <= 0) {
+			throw new IllegalArgumentException("A master execution queue needs at least one slot.");
+		}
+		synchronized (lines) {
+			this.slots = slots;
+			this.fair = fair;
+			while(active < slots && waiting > 0) {
+				grantNext();
+			}
+		}
+	}
+
+	/**
+	 * Takes a slot, waiting in line if they're all in use. The slot must be given back with {@link #release()}.
+	 *
+	 * @param job The job the script is running for. Only used to take turns when the queue is fair.
+	 * @throws InterruptedException If the build is aborted while waiting. It doesn't hold a slot then.
+	 */
+	public void acquire(String job, PrintStream logger) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		Ticket ticket = new Ticket();
+		int ahead;
+		synchronized (lines) {
+			if(active < slots && waiting == 0) {
+				active++;
+				acquired(0, logger);
+				return;
+			}
+			ahead = waiting;
+			String line = fair ? job : "";
+			Deque<Ticket> tickets = lines.get(line);
+			if(tickets == null) {
+				tickets = new ArrayDeque<Ticket>();
+				lines.put(line, tickets);
+			}
+			tickets.add(ticket);
+			waiting++;
+		}
+
+		logger.println("All " + slots + " master execution slots are in use. Waiting behind " + ahead + " other script" + (ahead == 1 ? "" : "s") + ".");
+		synchronized (lines) {
+			try {
+				while(!ticket.granted) {
+					lines.wait();
+				}
+			} catch (InterruptedException e) {
+				if(ticket.granted) {
+					releaseLocked();
+				} else {
+					remove(ticket);
+				}
+				throw e;
+			}
+		}
+		acquired(System.currentTimeMillis() - startTime, logger);
+	}
+
+	/**
+	 * Gives a slot back, handing it to the next script in line.
+	 */
+	public void release() {
+		synchronized (lines) {
+			releaseLocked();
+		}
+	}
+
+	private void releaseLocked() {
+		active--;
+		if(active < slots) {
+			grantNext();
+		}
+	}
+
+	private void grantNext() {
+		Iterator<Map.Entry<String, Deque<Ticket>>> iterator = lines.entrySet().iterator();
+		if(!iterator.hasNext()) {
+			return;
+		}
+		Map.Entry<String, Deque<Ticket>> next = iterator.next();
+		Ticket ticket = next.getValue().poll();
+		iterator.remove();
+		if(!next.getValue().isEmpty()) {
+			//To the back, so the other jobs get their turn first.
+			lines.put(next.getKey(), next.getValue());
+		}
+
+		waiting--;
+		active++;
+		ticket.granted = true;
+		lines.notifyAll();
+	}
+
+	private void remove(Ticket ticket) {
+		Iterator<Deque<Ticket>> iterator = lines.values().iterator();
+		while(iterator.hasNext()) {
+			Deque<Ticket> tickets = iterator.next();
+			if(tickets.remove(ticket)) {
+				waiting--;
+				if(tickets.isEmpty()) {
+					iterator.remove();
+				}
+				return;
+			}
+		}
+	}
+
+	private void acquired(long waited, PrintStream logger) {
+		runs.incrementAndGet();
+		totalWaitMillis.addAndGet(waited);
+		long max;
+		while(waited > (max = maxWaitMillis.get()) && !maxWaitMillis.compareAndSet(max, waited)) {
+			//retry
+		}
+		if(waited > 0) {
+			logger.println("Waited " + waited + "ms for a master execution slot.");
+		}
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public boolean isFair() {
+		return fair;
+	}
+
+	/**
+	 * How many scripts are running on master right now.
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * How many scripts are waiting for a slot.
+	 */
+	public int getWaiting() {
+		return waiting;
+	}
+
+	public long getRuns() {
+		return runs.get();
+	}
+
+	public long getTotalWaitMillis() {
+		return totalWaitMillis.get();
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis.get();
+	}
+
+	private static class Ticket {
+		private boolean granted; //guarded by lines
+	}
+}
@@ -0,0 +1,244 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * A fixed set of reusable workspaces on the master for scripts that run on master.
+ * <p/>
+ * A script leases a clean slot for as long as it runs, then gives it back.
+ * Returned slots are emptied on a background reaper thread before they're handed out again,
+ * so the build never waits for a recursive delete of whatever the script left behind.
+ * <p/>
+ * Each pool keeps its slots in its own directory under the configured location, so when the settings change and a new pool
+ * replaces this one, neither touches the other's slots. A replaced pool is {@link #shutdown()}: it still serves the scripts
+ * using or waiting for it, deletes slots as they come back, and removes its directory once the last one is returned.
+ * <p/>
+ * Only the <code>pool-N</code> directories are ever deleted from the configured location, since it may be shared with other things.
+ */
+public class MasterWorkspacePool {
+	private static final Logger LOGGER = Logger.getLogger(MasterWorkspacePool.class.getName());
+	public static final int DEFAULT_SIZE = 4;
+	public static final String DEFAULT_LOCATION = "scriptWorkspaces";
+
+	private static final Pattern POOL_NAME = Pattern.compile("pool-\\d+");
+	private static final AtomicInteger GENERATIONS = new AtomicInteger();
+	private static final Set<File> CLEARED_ROOTS = Collections.synchronizedSet(new HashSet<File>());
+	private static final ExecutorService REAPER = Executors.newSingleThreadExecutor(ScriptListExecutor.threadFactory("Script workspace reaper"));
+
+	private final File root;
+	private final File location;
+	private final int size;
+	private final BlockingQueue<File> clean = new LinkedBlockingQueue<File>();
+	private final AtomicInteger slotCount = new AtomicInteger();
+	private volatile boolean shutdown;
+
+	private final AtomicInteger leased = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong leases = new AtomicLong();
+	private final AtomicLong totalWaitMillis = new AtomicLong();
+	private final AtomicLong maxWaitMillis = new AtomicLong();
+
+	/**
+	 * @param root The configured location. The slots go in a directory of their own under it.
+	 */
+	public MasterWorkspacePool(File root, int size) {
+		this.root = root;
+		this.location = new File(root, "pool-" + GENERATIONS.incrementAndGet());
+		this.size = size;
+
+		if(CLEARED_ROOTS.add(root)) {
+			//The first pool here since Jenkins started, so any pools already here were left by a previous run.
+			//This runs before the slots below are created, since the reaper runs one task at a time.
+			REAPER.submit(new Runnable() {
+				public void run() {
+					deleteStalePools(root);
+				}
+			});
+		}
+		for (int i = 0; i < size; i++) {
+			recycle(newSlot());
+		}
+	}
+
+	/**
+	 * Takes a clean workspace, waiting for one to be returned if they're all in use.
+	 */
+	public FilePath lease(PrintStream logger) throws InterruptedException {
+		long startTime = System.currentTimeMillis();
+		waiting.incrementAndGet();
+		File slot;
+		try {
+			slot = clean.poll();
+			if(slot == null && shutdown) {
+				//Nothing may ever come back to a replaced pool, so don't wait for it. The slot is deleted when it's released.
+				slot = newSlot();
+				if(!slot.mkdirs() && !slot.isDirectory()) {
+					throw new IllegalStateException("Unable to create master workspace " + slot);
+				}
+			} else if(slot == null) {
+				logger.println("All " + size + " master workspaces are in use. Waiting for one to be freed.");
+				slot = clean.take();
+			}
+			//Before it stops waiting, so a replaced pool never sees it as unused in between.
+			leased.incrementAndGet();
+		} finally {
+			waiting.decrementAndGet();
+		}
+
+		long waited = System.currentTimeMillis() - startTime;
+		leases.incrementAndGet();
+		totalWaitMillis.addAndGet(waited);
+		long max;
+		while(waited > (max = maxWaitMillis.get()) && !maxWaitMillis.compareAndSet(max, waited)) {
+			//retry
+		}
+
+		if(waited > 0) {
+			logger.println("Waited " + waited + "ms for a master workspace.");
+		}
+		return new FilePath(slot);
+	}
+
+	/**
+	 * Gives a workspace back. It's cleaned up in the background.
+	 */
+	public void release(FilePath workspace) {
+		leased.decrementAndGet();
+		recycle(new File(workspace.getRemote()));
+	}
+
+	/**
+	 * Stops handing out slots once nobody is using or waiting for them, and deletes them. Called when a new pool replaces this one.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		REAPER.submit(new Runnable() {
+			public void run() {
+				//Keep enough for the scripts already waiting.
+				File slot;
+				while(clean.size() > waiting.get() && (slot = clean.poll()) != null) {
+					delete(slot);
+				}
+				removeIfUnused();
+			}
+		});
+	}
+
+	/**
+	 * Deletes the pool directories in <code>root</code>, leaving anything else in it alone.
+	 */
+	static void deleteStalePools(File root) {
+		File[] children = root.listFiles();
+		if(children == null) {
+			return;
+		}
+		for (File child : children) {
+			if(child.isDirectory() && POOL_NAME.matcher(child.getName()).matches()) {
+				delete(child);
+			}
+		}
+	}
+
+	private File newSlot() {
+		return new File(location, "slot-" + slotCount.getAndIncrement());
+	}
+
+	private void recycle(final File slot) {
+		REAPER.submit(new Runnable() {
+			public void run() {
+				if(shutdown && waiting.get() == 0) {
+					delete(slot);
+					removeIfUnused();
+					return;
+				}
+				try {
+					if(slot.isDirectory()) {
+						Util.deleteContentsRecursive(slot);
+					} else if(!slot.mkdirs()) {
+						throw new IOException("Unable to create " + slot);
+					}
+					clean.add(slot);
+				} catch (IOException e) {
+					//Don't let a slot we can't clean shrink the pool. Abandon it and make a new one in its place.
+					LOGGER.log(Level.WARNING, "Unable to clean master workspace " + slot + ". Replacing it.", e);
+					File replacement = newSlot();
+					if(replacement.mkdirs()) {
+						clean.add(replacement);
+					} else {
+						LOGGER.severe("Unable to create master workspace " + replacement);
+					}
+				}
+			}
+		});
+	}
+
+	private void removeIfUnused() {
+		if(leased.get() == 0 && waiting.get() == 0 && clean.isEmpty()) {
+			delete(location);
+		}
+	}
+
+	private static void delete(File file) {
+		try {
+			Util.deleteRecursive(file);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to delete master workspace " + file, e);
+		}
+	}
+
+	/**
+	 * The configured location this pool's directory is in.
+	 */
+	public File getRoot() {
+		return root;
+	}
+
+	public File getLocation() {
+		return location;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getLeased() {
+		return leased.get();
+	}
+
+	public int getAvailable() {
+		return clean.size();
+	}
+
+	public int getWaiting() {
+		return waiting.get();
+	}
+
+	public long getLeases() {
+		return leases.get();
+	}
+
+	public long getTotalWaitMillis() {
+		return totalWaitMillis.get();
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis.get();
+	}
+}
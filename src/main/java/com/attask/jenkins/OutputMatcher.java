@@ -0,0 +1,217 @@
+package com.attask.jenkins;
+
+import hudson.model.Result;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Patterns that decide a script's result from the lines it prints, and whether it can set properties with <code>##set KEY=VALUE</code> lines.
+ * <p/>
+ * The patterns are compiled once, each list into a single alternation, so a line is matched once per result.
+ * {@link #filter(OutputStream, Charset)} matches each line as it passes through to the console, so the log is never read back.
+ */
+public final class OutputMatcher implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private static final Pattern SET_LINE = Pattern.compile("^\\s*##set\\s+([^=\\s]+)\\s*=(.*)$");
+	private static final int MAX_LINE_BYTES = 64 * 1024;
+
+	public static final OutputMatcher NEVER = new OutputMatcher(null, null, false);
+
+	private final Pattern failure;
+	private final Pattern unstable;
+	private final boolean readSetLines;
+
+	private OutputMatcher(Pattern failure, Pattern unstable, boolean readSetLines) {
+		this.failure = failure;
+		this.unstable = unstable;
+		this.readSetLines = readSetLines;
+	}
+
+	/**
+	 * @param failurePatterns Regular expressions, one per line, any of which fails the script if it's found in a line of output.
+	 * @param unstablePatterns The same, for unstable.
+	 * @param readSetLines Whether <code>##set KEY=VALUE</code> lines set properties.
+	 * @throws IllegalArgumentException If a pattern isn't a valid regular expression.
+	 */
+	public static OutputMatcher compile(String failurePatterns, String unstablePatterns, boolean readSetLines) {
+		Pattern failure = compile(failurePatterns);
+		Pattern unstable = compile(unstablePatterns);
+		if(failure == null && unstable == null && !readSetLines) {
+			return NEVER;
+		}
+		return new OutputMatcher(failure, unstable, readSetLines);
+	}
+
+	private static Pattern compile(String patterns) {
+		List<String> alternatives = split(patterns);
+		if(alternatives.isEmpty()) {
+			return null;
+		}
+		StringBuilder combined = new StringBuilder();
+		for (String alternative : alternatives) {
+			Pattern.compile(alternative); //so the error points at the bad one
+			if(combined.length() > 0) {
+				combined.append('|');
+			}
+			combined.append("(?:").append(alternative).append(')');
+		}
+		return Pattern.compile(combined.toString());
+	}
+
+	static List<String> split(String patterns) {
+		if(patterns == null) {
+			return Collections.emptyList();
+		}
+		List<String> result = new ArrayList<String>();
+		for (String pattern : patterns.split("[\\r\\n]+")) {
+			if(!pattern.trim().isEmpty()) {
+				result.add(pattern.trim());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return Whether nothing is looked for, so the output doesn't need to be filtered.
+	 */
+	public boolean isEmpty() {
+		return failure == null && unstable == null && !readSetLines;
+	}
+
+	/**
+	 * @return The result the line calls for, or null if it doesn't match.
+	 */
+	public Result classify(CharSequence line) {
+		if(failure != null && failure.matcher(line).find()) {
+			return Result.FAILURE;
+		}
+		if(unstable != null && unstable.matcher(line).find()) {
+			return Result.UNSTABLE;
+		}
+		return null;
+	}
+
+	/**
+	 * @return The key and value the line sets, or null if it isn't a set line or they aren't being read.
+	 */
+	public String[] parseSet(CharSequence line) {
+		if(!readSetLines) {
+			return null;
+		}
+		Matcher matcher = SET_LINE.matcher(line);
+		if(!matcher.matches()) {
+			return null;
+		}
+		return new String[]{matcher.group(1), matcher.group(2).trim()};
+	}
+
+	/**
+	 * Wraps a script's output so each line is matched on its way to the console.
+	 */
+	public Filter filter(OutputStream output, Charset charset) {
+		return new Filter(output, charset);
+	}
+
+	/**
+	 * Passes everything through unchanged, matching each line as it ends. Lines longer than 64KB are only matched on their first 64KB.
+	 */
+	public final class Filter extends FilterOutputStream {
+		private final Charset charset;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		private final Map<String, String> set = new HashMap<String, String>();
+		private Result result;
+		private String firstMatch;
+
+		private Filter(OutputStream output, Charset charset) {
+			super(output);
+			this.charset = charset;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			take(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			for (int i = off; i < off + len; i++) {
+				take(b[i]);
+			}
+		}
+
+		private synchronized void take(int b) throws UnsupportedEncodingException {
+			if(b == '\n') {
+				endLine();
+			} else if(line.size() < MAX_LINE_BYTES) {
+				line.write(b);
+			}
+		}
+
+		private void endLine() throws UnsupportedEncodingException {
+			String text = line.toString(charset.name());
+			line.reset();
+			if(text.endsWith("\r")) {
+				text = text.substring(0, text.length() - 1);
+			}
+
+			Result lineResult = classify(text);
+			if(lineResult != null) {
+				if(firstMatch == null || lineResult.isWorseThan(result)) {
+					firstMatch = text;
+				}
+				result = result == null ? lineResult : result.combine(lineResult);
+			}
+
+			String[] keyAndValue = parseSet(text);
+			if(keyAndValue != null) {
+				set.put(keyAndValue[0], keyAndValue[1]);
+			}
+		}
+
+		/**
+		 * Matches the last line if the script didn't end it. Call once the script has finished.
+		 */
+		public synchronized void finish() throws IOException {
+			if(line.size() > 0) {
+				endLine();
+			}
+			flush();
+		}
+
+		/**
+		 * @return The worst result any line called for, or null if none matched.
+		 */
+		public synchronized Result getResult() {
+			return result;
+		}
+
+		/**
+		 * @return The line that called for {@link #getResult()}.
+		 */
+		public synchronized String getMatchedLine() {
+			return firstMatch;
+		}
+
+		/**
+		 * @return The properties set so far, the last value winning.
+		 */
+		public synchronized Map<String, String> getSet() {
+			return new HashMap<String, String>(set);
+		}
+	}
+}
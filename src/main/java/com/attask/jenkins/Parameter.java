@@ -2,14 +2,21 @@ package com.attask.jenkins;
 
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.AbstractDescribableImpl;
+import hudson.model.AbstractProject;
 import hudson.model.Descriptor;
+import hudson.model.ParametersDefinitionProperty;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 /**
  * I couldn't figure out a way to get Jelly/Stapler to let me auto-bind a List&lt;String&gt; so I created this as a workaround.
@@ -22,9 +29,32 @@ import java.util.List;
 public class Parameter extends AbstractDescribableImpl<Parameter> implements Serializable {
 	private String parameter;
 
+	//Parsed once from parameter.
+	private transient String key;
+	private transient String value;
+	private transient ParameterTemplate template;
+
 	@DataBoundConstructor
 	public Parameter(String parameter) {
 		this.parameter = parameter;
+		parse();
+	}
+
+	private Object readResolve() {
+		parse();
+		return this;
+	}
+
+	private void parse() {
+		if(parameter == null) {
+			key = null;
+			value = "";
+		} else {
+			int i = parameter.indexOf("=");
+			key = i >= 0 ? parameter.substring(0, i) : parameter;
+			value = i >= 0 ? parameter.substring(i + 1) : "";
+		}
+		template = ParameterTemplate.compile(value);
 	}
 
 	public String getParameter() {
@@ -50,25 +80,74 @@ public class Parameter extends AbstractDescribableImpl<Parameter> implements Ser
 	}
 
 	public String getParameterKey() {
-		int i = parameter.indexOf("=");
-		if(i >= 0) {
-			return parameter.substring(0, i);
-		} else {
-			return parameter;
-		}
+		return key;
 	}
 
 	public String getParameterValue() {
-		int i = parameter.indexOf("=");
-		if(i >= 0) {
-			return parameter.substring(i+1);
-		} else {
-			return "";
-		}
+		return value;
+	}
+
+	/**
+	 * The value with any variables replaced, the same as {@link EnvVars#expand(String)}.
+	 */
+	public String expandValue(Map<String, String> variables) {
+		return template.expand(variables);
 	}
 
 	@Extension
 	public static final class DescriptorImpl extends Descriptor<Parameter> {
+		/**
+		 * Variables every build has, regardless of how the job is configured.
+		 */
+		private static final Set<String> BUILD_VARIABLES = new HashSet<String>(Arrays.asList(
+				"BUILD_NUMBER", "BUILD_ID", "BUILD_DISPLAY_NAME", "BUILD_TAG", "BUILD_URL", "BUILD_RESULT",
+				"JOB_NAME", "JOB_URL", "NODE_NAME", "NODE_LABELS", "EXECUTOR_NUMBER", "WORKSPACE",
+				"JENKINS_URL", "JENKINS_HOME", "HUDSON_URL", "HUDSON_HOME", "HUDSON_SERVER_COOKIE"
+		));
+
+		/**
+		 * Warns about variables that nothing is known to define. They might still be injected by an earlier script, so it's only a warning.
+		 */
+		public FormValidation doCheckParameter(@AncestorInPath AbstractProject<?, ?> project, @QueryParameter String value) {
+			if(value == null || value.isEmpty()) {
+				return FormValidation.ok();
+			}
+			if(value.indexOf('=') <= 0) {
+				return FormValidation.warning("Parameters should be in the form KEY=VALUE.");
+			}
+
+			Set<String> known = knownVariables(project);
+			Set<String> unknown = new TreeSet<String>();
+			for (String name : new Parameter(value).template.getVariableNames()) {
+				if(!known.contains(name)) {
+					unknown.add(name);
+				}
+			}
+			if(unknown.isEmpty()) {
+				return FormValidation.ok();
+			}
+			return FormValidation.warning("Not defined by Jenkins, the node or the job's parameters: " + Util.join(unknown, ", ") + ". Unless an earlier script injects it, it will be left as is.");
+		}
+
+		private static Set<String> knownVariables(AbstractProject<?, ?> project) {
+			Set<String> result = new HashSet<String>(BUILD_VARIABLES);
+			result.addAll(EnvVars.masterEnvVars.keySet());
+
+			for (NodeProperty<?> property : Jenkins.getInstance().getGlobalNodeProperties()) {
+				if(property instanceof EnvironmentVariablesNodeProperty) {
+					result.addAll(((EnvironmentVariablesNodeProperty) property).getEnvVars().keySet());
+				}
+			}
+
+			if(project != null) {
+				ParametersDefinitionProperty parameters = project.getProperty(ParametersDefinitionProperty.class);
+				if(parameters != null) {
+					result.addAll(parameters.getParameterDefinitionNames());
+				}
+			}
+			return result;
+		}
+
 		@Override
 		public String getDisplayName() {
 			return "Parameter";
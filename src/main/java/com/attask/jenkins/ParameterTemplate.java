@@ -0,0 +1,116 @@
+package com.attask.jenkins;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A parameter value split once into literal text and variable references, so expanding it is a lookup per reference.
+ * <p/>
+ * Understands the same syntax as {@link hudson.EnvVars#expand(String)}: <code>$NAME</code>, <code>${NAME}</code>
+ * and <code>$$</code> for a literal dollar sign. References to variables that aren't defined are left as they were written.
+ */
+public final class ParameterTemplate implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Even indexes are literals, odd indexes are variable names. The raw text of each reference is kept in {@link #references}.
+	 */
+	private final String[] segments;
+	private final String[] references;
+	private final int literalLength;
+
+	private ParameterTemplate(List<String> segments, List<String> references) {
+		this.segments = segments.toArray(new String[segments.size()]);
+		this.references = references.toArray(new String[references.size()]);
+		int length = 0;
+		for (int i = 0; i < this.segments.length; i += 2) {
+			length += this.segments[i].length();
+		}
+		this.literalLength = length;
+	}
+
+	public static ParameterTemplate compile(String value) {
+		List<String> segments = new ArrayList<String>();
+		List<String> references = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+
+		int length = value == null ? 0 : value.length();
+		int i = 0;
+		while(i < length) {
+			char c = value.charAt(i);
+			if(c != '$' || i + 1 >= length) {
+				literal.append(c);
+				i++;
+				continue;
+			}
+
+			char next = value.charAt(i + 1);
+			if(next == '$') {
+				literal.append('$');
+				i += 2;
+			} else if(next == '{') {
+				int end = i + 2;
+				while(end < length && isNameChar(value.charAt(end), true)) {
+					end++;
+				}
+				if(end < length && end > i + 2 && value.charAt(end) == '}') {
+					addReference(segments, references, literal, value.substring(i + 2, end), value.substring(i, end + 1));
+					i = end + 1;
+				} else {
+					literal.append(c);
+					i++;
+				}
+			} else if(isNameChar(next, false)) {
+				int end = i + 1;
+				while(end < length && isNameChar(value.charAt(end), false)) {
+					end++;
+				}
+				addReference(segments, references, literal, value.substring(i + 1, end), value.substring(i, end));
+				i = end;
+			} else {
+				literal.append(c);
+				i++;
+			}
+		}
+		segments.add(literal.toString());
+		return new ParameterTemplate(segments, references);
+	}
+
+	private static void addReference(List<String> segments, List<String> references, StringBuilder literal, String name, String raw) {
+		segments.add(literal.toString());
+		literal.setLength(0);
+		segments.add(name);
+		references.add(raw);
+	}
+
+	private static boolean isNameChar(char c, boolean braced) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_' || (braced && c == '.');
+	}
+
+	public String expand(Map<String, String> variables) {
+		if(segments.length == 1) {
+			return segments[0];
+		}
+		StringBuilder result = new StringBuilder(literalLength + 16 * references.length);
+		for (int i = 0; i < segments.length; i++) {
+			if(i % 2 == 0) {
+				result.append(segments[i]);
+			} else {
+				String value = variables.get(segments[i]);
+				result.append(value != null ? value : references[i / 2]);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The names of the variables referenced, in order.
+	 */
+	public List<String> getVariableNames() {
+		List<String> result = new ArrayList<String>(references.length);
+		for (int i = 1; i < segments.length; i += 2) {
+			result.add(segments[i]);
+		}
+		return result;
+	}
+}
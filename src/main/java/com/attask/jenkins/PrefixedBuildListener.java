@@ -0,0 +1,24 @@
+package com.attask.jenkins;
+
+import hudson.model.StreamBuildListener;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A listener for a script running alongside others. Every line it prints is prefixed with its label.
+ */
+public class PrefixedBuildListener extends StreamBuildListener {
+	private static final long serialVersionUID = 1L;
+
+	private final String label;
+
+	public PrefixedBuildListener(OutputStream out, String label, Charset charset) {
+		super(new PrefixedOutputStream(out, label), charset);
+		this.label = label;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+}
@@ -0,0 +1,41 @@
+package com.attask.jenkins;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Prefixes every line with a label and writes each line in a single call,
+ * so scripts running at the same time can share the console without their lines getting mixed together.
+ */
+public class PrefixedOutputStream extends LineTransformationOutputStream {
+	private final OutputStream out;
+	private final byte[] prefix;
+
+	public PrefixedOutputStream(OutputStream out, String label) {
+		this.out = out;
+		this.prefix = ("[" + label + "] ").getBytes();
+	}
+
+	@Override
+	protected void eol(byte[] b, int len) throws IOException {
+		byte[] line = new byte[prefix.length + len];
+		System.arraycopy(prefix, 0, line, 0, prefix.length);
+		System.arraycopy(b, 0, line, prefix.length, len);
+		synchronized (out) {
+			out.write(line);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close(); //flushes any partial line
+		out.flush(); //but never closes the shared stream
+	}
+}
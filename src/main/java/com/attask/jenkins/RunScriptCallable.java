@@ -0,0 +1,155 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.remoting.Callable;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.StreamTaskListener;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a script's whole cycle on the node in one remote call: writes the script file, launches it, waits for it,
+ * reads the properties it injects and deletes the file.
+ * Only the output is streamed back while it runs, so a script costs a single round trip instead of one for each step.
+ */
+public class RunScriptCallable implements Callable<RunScriptCallable.Outcome, IOException> {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Stands in for the script's file in the command line, since a new file's name isn't known until it's written on the node.
+	 */
+	public static final String SCRIPT_PLACEHOLDER = "@SCRIPT@";
+
+	private final String workspace;
+	private final String cachedScript;
+	private final String contents;
+	private final String extension;
+	private final String[] commandLine;
+	private final Map<String, String> envVars;
+	private final OutputStream output;
+	private final String injectProperties;
+	private final InjectedPropertiesReader propertiesReader;
+
+	/**
+	 * @param cachedScript The script's file in the node's {@link ScriptCache}, or null to write the contents to a temporary file in the workspace.
+	 * @param extension The temporary file's extension, e.g. <code>.sh</code>.
+	 * @param commandLine Runs the script, with {@link #SCRIPT_PLACEHOLDER} in place of its file.
+	 * @param output Where the script's output goes. Wrapped so it streams back from the node.
+	 * @param injectProperties The file to read injected properties from, relative to the workspace, or null to not read any.
+	 */
+	public RunScriptCallable(FilePath workspace, FilePath cachedScript, String contents, String extension, String[] commandLine, Map<String, String> envVars,
+							 OutputStream output, String injectProperties, InjectedPropertiesReader propertiesReader) {
+		this.workspace = workspace.getRemote();
+		this.cachedScript = cachedScript == null ? null : cachedScript.getRemote();
+		this.contents = cachedScript == null ? contents : null;
+		this.extension = extension;
+		this.commandLine = commandLine;
+		this.envVars = new HashMap<String, String>(envVars);
+		this.output = new RemoteOutputStream(output);
+		this.injectProperties = injectProperties;
+		this.propertiesReader = propertiesReader;
+	}
+
+	/**
+	 * Starts the call on the workspace's node.
+	 */
+	public Run start(VirtualChannel channel) throws IOException {
+		return new Run(channel.callAsync(this));
+	}
+
+	public Outcome call() throws IOException {
+		FilePath workspacePath = new FilePath(new File(workspace));
+		StreamTaskListener listener = new StreamTaskListener(output);
+		File temporaryScript = null;
+		try {
+			File script;
+			if(cachedScript != null) {
+				script = new File(cachedScript);
+			} else {
+				temporaryScript = script = File.createTempFile("hudson", extension, new File(workspace));
+				//The platform's default encoding, the same as CommandInterpreter.createScriptFile.
+				Writer writer = new OutputStreamWriter(new FileOutputStream(script));
+				try {
+					writer.write(contents);
+				} finally {
+					writer.close();
+				}
+			}
+
+			String[] command = new String[commandLine.length];
+			for (int i = 0; i < command.length; i++) {
+				command[i] = SCRIPT_PLACEHOLDER.equals(commandLine[i]) ? script.getPath() : commandLine[i];
+			}
+
+			int exitCode = new Launcher.LocalLauncher(listener).launch().cmds(command).envs(envVars).stdout(listener).pwd(workspacePath).join();
+			listener.getLogger().flush();
+
+			Outcome outcome = new Outcome(exitCode);
+			if(injectProperties != null && !injectProperties.isEmpty()) {
+				try {
+					outcome.injected = new FilePath(workspacePath, injectProperties).act(propertiesReader);
+				} catch (IOException e) {
+					outcome.injectFailure = e;
+				}
+			}
+			return outcome;
+		} catch (InterruptedException e) {
+			//LocalLauncher has already killed the process.
+			throw (IOException) new InterruptedIOException("Interrupted while running the script").initCause(e);
+		} finally {
+			if(temporaryScript != null && !temporaryScript.delete() && temporaryScript.exists()) {
+				listener.getLogger().println("Unable to delete " + temporaryScript);
+			}
+			listener.getLogger().flush();
+		}
+	}
+
+	/**
+	 * The call, waiting to be joined.
+	 */
+	public static class Run extends FutureProc<Outcome> {
+		private Run(Future<Outcome> future) {
+			super(future);
+		}
+
+		@Override
+		protected int exitCodeOf(Outcome outcome) {
+			return outcome.exitCode;
+		}
+	}
+
+	/**
+	 * The exit code, and the injected properties if they were asked for.
+	 */
+	public static final class Outcome implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final int exitCode;
+		private Map<String, String> injected;
+		private IOException injectFailure;
+
+		private Outcome(int exitCode) {
+			this.exitCode = exitCode;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		/**
+		 * @return The injected properties.
+		 * @throws IOException If the file couldn't be read, the same as reading it separately would have thrown.
+		 */
+		public Map<String, String> getInjected() throws IOException {
+			if(injectFailure != null) {
+				throw injectFailure;
+			}
+			return injected;
+		}
+	}
+}
@@ -1,19 +1,21 @@
 package com.attask.jenkins;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractProject;
 import hudson.model.RootAction;
 import hudson.model.User;
 import hudson.security.AccessDeniedException2;
 import hudson.security.Permission;
 import jenkins.model.Jenkins;
-import org.apache.commons.io.FileUtils;
-import org.apache.log4j.lf5.util.StreamUtils;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
-import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.util.*;
 
 /**
  * User: Joel Johnson
@@ -22,6 +24,9 @@ import java.io.*;
  */
 @Extension
 public class ScriptApi implements RootAction {
+	//So a save can't slip in between another save's If-Match check and its write.
+	private static final Object UPDATE_LOCK = new Object();
+
 	public void doFile(StaplerRequest request, StaplerResponse response) throws IOException {
 		if(!Jenkins.getAuthentication().isAuthenticated()) {
 			throw new AccessDeniedException2(Jenkins.getAuthentication(), Permission.CONFIGURE);
@@ -31,15 +36,12 @@ public class ScriptApi implements RootAction {
 			current.checkPermission(Permission.CONFIGURE);
 		}
 
-		String path = request.getParameter("path");
-		ServletOutputStream outputStream = response.getOutputStream();
-		FileInputStream input = new FileInputStream(new File(path));
-		try {
-			StreamUtils.copy(input, outputStream);
-		} finally {
-			input.close();
+		File file = resolve(request.getParameter("path"));
+		if(file == null || !file.isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
 		}
-		outputStream.flush();
+		new ScriptFileResponse(file).serve(request, response);
 	}
 
 	@RequirePOST
@@ -52,10 +54,266 @@ public class ScriptApi implements RootAction {
 			current.checkPermission(Permission.CONFIGURE);
 		}
 
-		String path = request.getParameter("path");
-		String content = request.getParameter("content");
+		File file = resolve(request.getParameter("path"));
+		if(file == null || !file.getParentFile().isDirectory()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		String eTag;
+		synchronized (UPDATE_LOCK) {
+			String ifMatch = request.getHeader("If-Match");
+			if(ifMatch != null && !matches(ifMatch, file)) {
+				if(file.exists()) {
+					response.setHeader("ETag", ScriptFileResponse.eTagOf(file));
+				}
+				response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED, "The file has been changed since it was loaded.");
+				return;
+			}
+
+			//Older pages post the whole script as a form parameter.
+			String content = request.getParameter("content");
+			InputStream input = content != null ? new ByteArrayInputStream(content.getBytes()) : request.getInputStream();
+			try {
+				replaceFile(file, input);
+			} finally {
+				input.close();
+			}
+			eTag = ScriptFileResponse.eTagOf(file);
+		}
+
+		ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		descriptor.getScriptIndex().invalidate(file.getPath());
+		String requestedPath = request.getParameter("path");
+		if(!file.getPath().equals(requestedPath) && new File(requestedPath).isAbsolute()) {
+			descriptor.getScriptIndex().invalidate(requestedPath);
+		}
+
+		response.setHeader("ETag", eTag);
+		response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+	}
+
+	private static boolean matches(String ifMatch, File file) throws IOException {
+		if(!file.exists()) {
+			return false;
+		}
+		return ScriptFileResponse.match(ifMatch, ScriptFileResponse.eTagOf(file), false) != null;
+	}
+
+	/**
+	 * Writes to a temp file next to the target, syncs it to disk, then renames it over the target,
+	 * so a build reading the script at the same time sees either the old version or the new one but never part of one.
+	 * The new file keeps the old one's permissions.
+	 */
+	private static void replaceFile(File file, InputStream input) throws IOException {
+		File temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+		try {
+			FileOutputStream output = new FileOutputStream(temp);
+			try {
+				IOUtils.copy(input, output);
+				output.flush();
+				output.getFD().sync();
+			} finally {
+				output.close();
+			}
+
+			copyMode(file, temp);
+			if(!temp.renameTo(file)) {
+				//Windows won't rename over an existing file, so that's the one case that isn't atomic.
+				if(!file.delete() || !temp.renameTo(file)) {
+					throw new IOException("Unable to replace " + file);
+				}
+			}
+		} finally {
+			if(temp.exists()) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Temp files are only readable by their owner. Gives the temp file the mode of the file it's replacing,
+	 * or for a new file, the directory's mode without the execute bits. Does nothing where there are no modes.
+	 */
+	private static void copyMode(File file, File temp) throws IOException {
+		try {
+			int mode;
+			if(file.exists()) {
+				mode = new FilePath(file).mode();
+			} else {
+				int directoryMode = new FilePath(file.getParentFile()).mode();
+				mode = directoryMode < 0 ? -1 : directoryMode & 0666;
+			}
+			if(mode >= 0) {
+				new FilePath(temp).chmod(mode);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while setting the mode of " + file);
+		}
+	}
+
+	/**
+	 * Plain text stats for the pool of master workspaces.
+	 */
+	public void doWorkspacePool(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+		ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		MasterWorkspacePool pool = descriptor.getWorkspacePool();
+
+		response.setContentType("text/plain;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		if(pool == null) {
+			writer.println("enabled 0");
+		} else {
+			writer.println("enabled 1");
+			writer.println("size " + pool.getSize());
+			writer.println("leased " + pool.getLeased());
+			writer.println("available " + pool.getAvailable());
+			writer.println("waiting " + pool.getWaiting());
+			writer.println("leases " + pool.getLeases());
+			writer.println("wait_millis_total " + pool.getTotalWaitMillis());
+			writer.println("wait_millis_max " + pool.getMaxWaitMillis());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Plain text stats for the queue of scripts waiting to run on master.
+	 */
+	public void doMasterQueue(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+		ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		MasterExecutionQueue queue = descriptor.getMasterQueue();
+
+		response.setContentType("text/plain;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		if(queue == null) {
+			writer.println("enabled 0");
+		} else {
+			writer.println("enabled 1");
+			writer.println("slots " + queue.getSlots());
+			writer.println("fair " + (queue.isFair() ? 1 : 0));
+			writer.println("active " + queue.getActive());
+			writer.println("waiting " + queue.getWaiting());
+			writer.println("runs " + queue.getRuns());
+			writer.println("wait_millis_total " + queue.getTotalWaitMillis());
+			writer.println("wait_millis_max " + queue.getMaxWaitMillis());
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Phase timings and run counts for every script, plus the master workspace pool and execution queue, in the Prometheus text format.
+	 * <code>?reset=true</code> clears the timings and counts afterward; that needs administer permission.
+	 */
+	public void doMetrics(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+		boolean reset = Boolean.parseBoolean(request.getParameter("reset"));
+		if(reset) {
+			Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		}
+
+		ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		ScriptMetrics metrics = descriptor.getMetrics();
+
+		response.setContentType("text/plain;version=0.0.4;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		metrics.writeTo(writer);
+
+		MasterWorkspacePool pool = descriptor.getWorkspacePool();
+		if(pool != null) {
+			writer.println("# TYPE script_workspace_pool gauge");
+			writer.println("script_workspace_pool{state=\"size\"} " + pool.getSize());
+			writer.println("script_workspace_pool{state=\"leased\"} " + pool.getLeased());
+			writer.println("script_workspace_pool{state=\"available\"} " + pool.getAvailable());
+			writer.println("script_workspace_pool{state=\"waiting\"} " + pool.getWaiting());
+			writer.println("# TYPE script_workspace_pool_leases_total counter");
+			writer.println("script_workspace_pool_leases_total " + pool.getLeases());
+			writer.println("# TYPE script_workspace_pool_wait_millis_total counter");
+			writer.println("script_workspace_pool_wait_millis_total " + pool.getTotalWaitMillis());
+			writer.println("# TYPE script_workspace_pool_wait_millis_max gauge");
+			writer.println("script_workspace_pool_wait_millis_max " + pool.getMaxWaitMillis());
+		}
+
+		MasterExecutionQueue queue = descriptor.getMasterQueue();
+		if(queue != null) {
+			writer.println("# TYPE script_master_queue gauge");
+			writer.println("script_master_queue{state=\"slots\"} " + queue.getSlots());
+			writer.println("script_master_queue{state=\"active\"} " + queue.getActive());
+			writer.println("script_master_queue{state=\"waiting\"} " + queue.getWaiting());
+			writer.println("# TYPE script_master_queue_runs_total counter");
+			writer.println("script_master_queue_runs_total " + queue.getRuns());
+			writer.println("# TYPE script_master_queue_wait_millis_total counter");
+			writer.println("script_master_queue_wait_millis_total " + queue.getTotalWaitMillis());
+			writer.println("# TYPE script_master_queue_wait_millis_max gauge");
+			writer.println("script_master_queue_wait_millis_max " + queue.getMaxWaitMillis());
+		}
+		writer.flush();
+
+		if(reset) {
+			metrics.reset();
+		}
+	}
+
+	/**
+	 * Plain text p50/p95 durations of a single script in every job that has run it, slowest first.
+	 * Takes the script's full path as <code>script</code> and optionally the number of recent builds to look at as <code>builds</code>.
+	 */
+	public void doTrend(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+
+		String script = request.getParameter("script");
+		if(script == null || script.isEmpty()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "script is required");
+			return;
+		}
+		int builds = ScriptHistory.DEFAULT_BUILDS;
+		if(request.getParameter("builds") != null) {
+			try {
+				builds = Math.max(1, Integer.parseInt(request.getParameter("builds")));
+			} catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "builds must be a number");
+				return;
+			}
+		}
+
+		List<Map.Entry<String, ScriptHistory.Trend>> trends = new ArrayList<Map.Entry<String, ScriptHistory.Trend>>();
+		for (AbstractProject<?, ?> project : Jenkins.getInstance().getAllItems(AbstractProject.class)) {
+			ScriptHistory history = ScriptHistory.of(project);
+			if(history.exists()) {
+				ScriptHistory.Trend trend = history.getTrends(builds).get(script);
+				if(trend != null) {
+					trends.add(new AbstractMap.SimpleEntry<String, ScriptHistory.Trend>(project.getFullName(), trend));
+				}
+			}
+		}
+		Collections.sort(trends, new Comparator<Map.Entry<String, ScriptHistory.Trend>>() {
+			public int compare(Map.Entry<String, ScriptHistory.Trend> trend1, Map.Entry<String, ScriptHistory.Trend> trend2) {
+				long p95a = trend1.getValue().getP95();
+				long p95b = trend2.getValue().getP95();
+				return p95a == p95b ? trend1.getKey().compareTo(trend2.getKey()) : (p95a > p95b ? -1 : 1);
+			}
+		});
+
+		response.setContentType("text/plain;charset=UTF-8");
+		PrintWriter writer = response.getWriter();
+		writer.println("job\truns\tp50_millis\tp95_millis\tlast_build\tlast_result");
+		for (Map.Entry<String, ScriptHistory.Trend> entry : trends) {
+			ScriptHistory.Trend trend = entry.getValue();
+			writer.println(entry.getKey() + "\t" + trend.getRuns() + "\t" + trend.getP50() + "\t" + trend.getP95() + "\t" + trend.getLast().getBuildNumber() + "\t" + trend.getLast().getResult());
+		}
+		writer.flush();
+	}
 
-		FileUtils.writeStringToFile(new File(path), content);
+	/**
+	 * @return The file in userContent the path refers to (either absolute or relative to userContent), or null if it's outside of userContent.
+	 */
+	private static File resolve(String path) {
+		ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		return descriptor.getScriptIndex().resolve(path);
 	}
 
 	public String getIconFileName() {
@@ -0,0 +1,368 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Runs several scripts from a pre or post build list in a single shell process on the build's node,
+ * instead of writing, launching and deleting each one separately.
+ * <p/>
+ * The shell is sent a generated runner on stdin. The runner writes each script to a temporary directory and runs it in a subshell
+ * with its own environment, the same as if it had been launched alone. The variables it doesn't share with the others are set
+ * by the runner itself, so they never show up in a process's arguments. Before and after each script it prints a marker line,
+ * with a random token no script would print, carrying the script's index and exit code. The markers are taken out of the console
+ * and used to time each script and apply its result as soon as it finishes.
+ * <p/>
+ * Every script's environment is worked out before the batch starts, which is only right as long as the scripts before it succeed.
+ * So the runner knows which exit codes would give a script any other result and stops there. The scripts that didn't run
+ * start a new batch, with environments that include the result, unless the script aborts (see {@link ScriptBuilder#getAbortOnFailure()}).
+ */
+public class ScriptBatch {
+	/**
+	 * Stands in for the script's file in {@link Entry}'s command line, since the file's name isn't known until the runner creates it.
+	 */
+	static final String SCRIPT_PLACEHOLDER = "@SCRIPT@";
+
+	private final List<ScriptBuilder> scripts;
+
+	public ScriptBatch(List<ScriptBuilder> scripts) {
+		this.scripts = scripts;
+	}
+
+	/**
+	 * @return {@link ScriptBuilder#CONTINUE} unless one of the scripts aborted.
+	 */
+	public boolean execute(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		List<ScriptBuilder> remaining = scripts;
+		while(!remaining.isEmpty()) {
+			if(remaining.size() == 1) {
+				return remaining.get(0).perform(build, launcher, listener);
+			}
+			int ran = executeBatch(remaining, build, launcher, listener);
+			if(ran < 0) {
+				return ScriptBuilder.ABORT;
+			}
+			remaining = remaining.subList(ran, remaining.size());
+		}
+		return ScriptBuilder.CONTINUE;
+	}
+
+	/**
+	 * Runs the scripts in one process until one of them doesn't succeed.
+	 * If the process ends before starting any of them, they're run separately instead.
+	 *
+	 * @return How many of the scripts ran, at least one, or -1 if one aborted.
+	 */
+	private int executeBatch(List<ScriptBuilder> scripts, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		FilePath workspace = build.getWorkspace();
+		List<Entry> entries = new ArrayList<Entry>(scripts.size());
+		for (ScriptBuilder script : scripts) {
+			Entry entry = workspace == null ? null : script.prepareBatched(build, listener);
+			if(entry == null) {
+				//Something's missing. Running them separately reports it the usual way.
+				return executeSeparately(scripts, build, launcher, listener);
+			}
+			entries.add(entry);
+		}
+
+		PrintStream logger = listener.getLogger();
+		List<String> names = new ArrayList<String>(entries.size());
+		for (Entry entry : entries) {
+			names.add(entry.name);
+		}
+		logger.println("Running " + entries.size() + " scripts in one process: " + Util.join(names, ", "));
+
+		String token = "\u0001script-batch-" + UUID.randomUUID().toString();
+		Map<String, String> baseEnvironment = commonEnvironment(entries);
+		if(!canBeSet(entries, baseEnvironment)) {
+			//Variables the shell can't set itself would have to be passed as arguments, where anyone could see them.
+			return executeSeparately(scripts, build, launcher, listener);
+		}
+		String runner = runner(entries, workspace.getRemote(), baseEnvironment, token);
+
+		String node = ScriptBuilder.nodeNameOf(build);
+		Progress progress = new Progress(build, listener, node, entries, token);
+		int runnerExitCode;
+		try {
+			runnerExitCode = launcher.launch()
+					.cmds("sh", "-s")
+					.envs(baseEnvironment)
+					.stdin(new ByteArrayInputStream(runner.getBytes("UTF-8")))
+					.stdout(progress)
+					.pwd(workspace)
+					.join();
+		} finally {
+			progress.close();
+		}
+
+		synchronized (progress) {
+			if(entries.get(0).startTime == 0) {
+				//Most likely it couldn't make its temporary directory. Running them again the same way would do the same.
+				listener.error("The script runner exited with " + runnerExitCode + " before running any scripts. Running them separately.");
+				return executeSeparately(scripts, build, launcher, listener);
+			}
+			int ran = 0;
+			for (Entry entry : entries) {
+				if(entry.startTime == 0) { //never started
+					break;
+				}
+				ran++;
+				if(entry.applied) {
+					continue;
+				}
+				if(entry.endNanos == 0) {
+					listener.error(entry.name + " didn't finish. Failing.");
+					entry.endNanos = System.nanoTime();
+					entry.exitCode = -1;
+					entry.result = Result.FAILURE;
+				}
+				//Only a script that injects properties is left to now, since injecting them is a remote call.
+				if(entry.script.finishBatched(build, listener, node, entry.startTime, entry.startNanos, entry.endNanos, entry.exitCode, entry.result) == ScriptBuilder.ABORT) {
+					return -1;
+				}
+			}
+			return progress.aborted ? -1 : ran;
+		}
+	}
+
+	private int executeSeparately(List<ScriptBuilder> scripts, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		for (ScriptBuilder script : scripts) {
+			if(script.perform(build, launcher, listener) == ScriptBuilder.ABORT) {
+				return -1;
+			}
+		}
+		return scripts.size();
+	}
+
+	/**
+	 * The variables every script has with the same value. The shell is started with these so each script only needs to be sent the rest.
+	 */
+	static Map<String, String> commonEnvironment(List<Entry> entries) {
+		Map<String, String> result = new HashMap<String, String>(entries.get(0).environment);
+		for (Entry entry : entries.subList(1, entries.size())) {
+			Iterator<Map.Entry<String, String>> iterator = result.entrySet().iterator();
+			while(iterator.hasNext()) {
+				Map.Entry<String, String> variable = iterator.next();
+				if(!variable.getValue().equals(entry.environment.get(variable.getKey()))) {
+					iterator.remove();
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Whether the shell can set every variable that isn't in the base environment. Only names that are shell identifiers can be.
+	 */
+	static boolean canBeSet(List<Entry> entries, Map<String, String> baseEnvironment) {
+		for (Entry entry : entries) {
+			for (Map.Entry<String, String> variable : entry.environment.entrySet()) {
+				if(!variable.getValue().equals(baseEnvironment.get(variable.getKey())) && !WarmShell.isShellName(variable.getKey())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	static String runner(List<Entry> entries, String workspace, Map<String, String> baseEnvironment, String token) {
+		StringBuilder runner = new StringBuilder();
+		runner.append("dir=`mktemp -d \"${TMPDIR:-/tmp}/scripts.XXXXXXXX\"` || exit 1\n");
+		runner.append("trap 'rm -rf \"$dir\"' EXIT\n");
+
+		for (int i = 0; i < entries.size(); i++) {
+			Entry entry = entries.get(i);
+			String delimiter = "SCRIPT_" + i + "_" + UUID.randomUUID().toString().replace("-", "");
+			runner.append("cat > \"$dir/").append(i).append("\" <<'").append(delimiter).append("'\n");
+			runner.append(entry.contents);
+			if(!entry.contents.endsWith("\n")) {
+				runner.append('\n');
+			}
+			runner.append(delimiter).append('\n');
+
+			runner.append("printf '%s\\n' ").append(WarmShell.quote(token + " start " + i)).append('\n');
+			runner.append("( cd ").append(WarmShell.quote(workspace)).append(" &&");
+			for (Map.Entry<String, String> variable : new TreeMap<String, String>(entry.environment).entrySet()) {
+				if(!variable.getValue().equals(baseEnvironment.get(variable.getKey()))) {
+					runner.append(' ').append(variable.getKey()).append('=').append(WarmShell.quote(variable.getValue()))
+							.append(" && export ").append(variable.getKey()).append(" &&");
+				}
+			}
+			runner.append(" exec");
+			for (String argument : entry.commandLine) {
+				runner.append(' ').append(SCRIPT_PLACEHOLDER.equals(argument) ? "\"$dir/" + i + "\"" : WarmShell.quote(argument));
+			}
+			runner.append(" ) </dev/null 2>&1\n");
+			runner.append("code=$?\n");
+			runner.append("printf '%s %d\\n' ").append(WarmShell.quote(token + " end " + i)).append(" $code\n");
+			if(!entry.stopCodes.isEmpty() && i < entries.size() - 1) {
+				runner.append("case $code in ").append(Util.join(entry.stopCodes, "|")).append(") exit 0 ;; esac\n");
+			}
+		}
+		return runner.toString();
+	}
+
+	/**
+	 * A script ready to be run in a batch, and what happened when it ran.
+	 */
+	static class Entry {
+		private final ScriptBuilder script;
+		private final String name;
+		private final String contents;
+		private final String[] commandLine;
+		private final Map<String, String> environment;
+		private final List<Integer> stopCodes = new ArrayList<Integer>();
+
+		//Set by Progress as the markers arrive.
+		private long startTime;
+		private long startNanos;
+		private long endNanos;
+		private int exitCode;
+		private Result result;
+		private ScriptLogAction.Segment segment;
+		private boolean applied;
+
+		/**
+		 * @param commandLine Runs the script, with {@link #SCRIPT_PLACEHOLDER} in place of the script's file.
+		 */
+		Entry(ScriptBuilder script, String name, String contents, String[] commandLine, Map<String, String> environment) {
+			this.script = script;
+			this.name = name;
+			this.contents = contents;
+			this.commandLine = commandLine;
+			this.environment = environment;
+			for (int exitCode = 0; exitCode <= 255; exitCode++) {
+				if(script.resultOf(exitCode) != Result.SUCCESS) {
+					stopCodes.add(exitCode);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Passes the scripts' output through to the console, minus the markers, and keeps track of which script is running.
+	 */
+	private static class Progress extends OutputStream {
+		private final AbstractBuild<?, ?> build;
+		private final BuildListener listener;
+		private final String node;
+		private final PrintStream logger;
+		private final List<Entry> entries;
+		private final byte[] marker;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		private boolean aborted;
+
+		private Progress(AbstractBuild<?, ?> build, BuildListener listener, String node, List<Entry> entries, String token) throws IOException {
+			this.build = build;
+			this.listener = listener;
+			this.node = node;
+			this.logger = listener.getLogger();
+			this.entries = entries;
+			this.marker = (token + " ").getBytes("UTF-8");
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			line.write(b);
+			if(b == '\n') {
+				endLine();
+			}
+		}
+
+		@Override
+		public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+			for (int i = offset; i < offset + length; i++) {
+				write(bytes[i]);
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if(line.size() > 0) {
+				logger.write(line.toByteArray());
+				line.reset();
+			}
+			logger.flush();
+		}
+
+		private void endLine() throws IOException {
+			byte[] bytes = line.toByteArray();
+			line.reset();
+			int markerAt = WarmShell.indexOf(bytes, marker);
+			if(markerAt < 0) {
+				logger.write(bytes);
+				return;
+			}
+			logger.write(bytes, 0, markerAt);
+			if(markerAt > 0) {
+				logger.println();
+			}
+
+			String[] event = new String(bytes, markerAt + marker.length, bytes.length - markerAt - marker.length, "UTF-8").trim().split(" ");
+			try {
+				Entry entry = entries.get(Integer.parseInt(event[1]));
+				if("start".equals(event[0])) {
+					started(entry);
+				} else if("end".equals(event[0]) && event.length > 2) {
+					finished(entry, Integer.parseInt(event[2]));
+				}
+			} catch (NumberFormatException e) {
+				logger.println("Unexpected progress from the script runner: " + Arrays.toString(event));
+			} catch (IndexOutOfBoundsException e) {
+				logger.println("Unexpected progress from the script runner: " + Arrays.toString(event));
+			}
+		}
+
+		private void started(Entry entry) {
+			entry.startTime = System.currentTimeMillis();
+			entry.startNanos = System.nanoTime();
+			entry.segment = ScriptLogAction.start(build, listener, entry.script.getScriptName());
+			logger.println("========================================");
+			logger.println("Executing: " + entry.name);
+			logger.println("----------------------------------------");
+		}
+
+		private void finished(Entry entry, int exitCode) {
+			entry.endNanos = System.nanoTime();
+			entry.exitCode = exitCode;
+			entry.result = entry.script.resultOf(exitCode);
+			logger.println("----------------------------------------");
+			logger.println(entry.name + " finished in " + (entry.endNanos - entry.startNanos) / 1000000 + "ms.");
+			logger.println("Exit code was " + exitCode + ". " + entry.result + ".");
+			if(!entry.script.endsBatch()) {
+				//Otherwise this comes after its properties are injected, once the process has exited.
+				logger.println("========================================");
+				logger.println();
+				apply(entry);
+			}
+			ScriptLogAction.end(build, listener, entry.segment);
+		}
+
+		/**
+		 * Records the script and sets the build's result right away, rather than when the whole batch is done.
+		 */
+		private void apply(Entry entry) {
+			entry.applied = true;
+			try {
+				if(entry.script.finishBatched(build, listener, node, entry.startTime, entry.startNanos, entry.endNanos, entry.exitCode, entry.result) == ScriptBuilder.ABORT) {
+					aborted = true;
+				}
+			} catch (IOException e) {
+				e.printStackTrace(listener.error("Unable to record " + entry.name));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -4,18 +4,25 @@ import hudson.*;
 import hudson.model.*;
 import hudson.tasks.*;
 import hudson.tasks.Messages;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.logging.Logger;
 
 /**
  * User: Joel Johnson
@@ -24,10 +31,12 @@ import java.util.*;
  */
 @ExportedBean
 public class ScriptBuilder extends Builder {
+	private static final Logger LOGGER = Logger.getLogger(ScriptBuilder.class.getName());
+
 	public static final boolean CONTINUE = true;
 	public static final boolean ABORT = false;
 
-	private final String scriptName; //will be an absolute path
+	private String scriptName; //relative to userContent, or absolute if it's outside of it
 	private final List<Parameter> parameters;
 	private final boolean abortOnFailure;
 	private final ErrorMode errorMode;
@@ -36,10 +45,25 @@ public class ScriptBuilder extends Builder {
 	private final String unstableRange;
 	private final String injectProperties;
 	private final boolean runOnMaster;
+	private final String dependsOn;
+	private final boolean logInjectedSummary;
+	private final String timeout; //in minutes
+	private final String idleTimeout; //in minutes
+	private final String timeoutResult;
+	private final boolean skipIfUnchanged;
+	private final String skipInputs; //workspace globs
+	private final ExecutionStrategy executionStrategy;
+	private final String failOnOutput; //regular expressions, one per line
+	private final String unstableOnOutput; //regular expressions, one per line
+	private final boolean setFromOutput;
+
+	private transient ExitCodeMatcher errorMatcher;
+	private transient ExitCodeMatcher unstableMatcher;
+	private transient OutputMatcher outputMatcher;
 
 	@DataBoundConstructor
-	public ScriptBuilder(String scriptName, List<Parameter> parameters, boolean abortOnFailure, ErrorMode errorMode, String errorRange, ErrorMode unstableMode, String unstableRange, String injectProperties, boolean runOnMaster) {
-		this.scriptName = scriptName;
+	public ScriptBuilder(String scriptName, List<Parameter> parameters, boolean abortOnFailure, ErrorMode errorMode, String errorRange, ErrorMode unstableMode, String unstableRange, String injectProperties, boolean runOnMaster, String dependsOn, boolean logInjectedSummary, String timeout, String idleTimeout, String timeoutResult, boolean skipIfUnchanged, String skipInputs, ExecutionStrategy executionStrategy, String failOnOutput, String unstableOnOutput, boolean setFromOutput) {
+		this.scriptName = normalizeScriptName(scriptName);
 		if (parameters == null) {
 			this.parameters = Collections.emptyList();
 		} else {
@@ -51,10 +75,50 @@ public class ScriptBuilder extends Builder {
 		this.errorRange = errorRange;
 		this.unstableMode = unstableMode;
 		this.unstableRange = unstableRange;
+		this.errorMatcher = ExitCodeMatcher.compile(errorMode, errorRange);
+		this.unstableMatcher = ExitCodeMatcher.compile(unstableMode, unstableRange);
 
 		this.injectProperties = injectProperties;
 
 		this.runOnMaster = runOnMaster;
+		this.dependsOn = dependsOn;
+		this.logInjectedSummary = logInjectedSummary;
+		this.timeout = timeout;
+		this.idleTimeout = idleTimeout;
+		this.timeoutResult = timeoutResult;
+		this.skipIfUnchanged = skipIfUnchanged;
+		this.skipInputs = skipInputs;
+		this.executionStrategy = executionStrategy;
+		this.failOnOutput = failOnOutput;
+		this.unstableOnOutput = unstableOnOutput;
+		this.setFromOutput = setFromOutput;
+		this.outputMatcher = OutputMatcher.compile(failOnOutput, unstableOnOutput, setFromOutput);
+	}
+
+	private Object readResolve() {
+		//Saved as an absolute path before the typeahead, which saves the relative one.
+		scriptName = normalizeScriptName(scriptName);
+		try {
+			errorMatcher = ExitCodeMatcher.compile(errorMode, errorRange);
+			unstableMatcher = ExitCodeMatcher.compile(unstableMode, unstableRange);
+		} catch (IllegalArgumentException e) {
+			//Saved before ranges were validated. Leave them null so the build reports the problem instead of the job failing to load.
+			LOGGER.warning("Invalid exit code range for " + scriptName + ": " + e.getMessage());
+		}
+		try {
+			outputMatcher = OutputMatcher.compile(failOnOutput, unstableOnOutput, setFromOutput);
+		} catch (IllegalArgumentException e) {
+			LOGGER.warning("Invalid output pattern for " + scriptName + ": " + e.getMessage());
+		}
+		return this;
+	}
+
+	/**
+	 * One name per script, so timings, history and metrics don't split between its absolute and relative paths.
+	 */
+	private static String normalizeScriptName(String scriptName) {
+		File userContent = DescriptorImpl.getUserContent();
+		return userContent == null ? scriptName : ScriptIndex.relativize(userContent, scriptName);
 	}
 
 	@Override
@@ -63,74 +127,288 @@ public class ScriptBuilder extends Builder {
 	}
 
 	private boolean runScript(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
-		Result result;
+		boolean onMaster = this.runOnMaster && !(launcher instanceof Launcher.LocalLauncher);
+		ScriptMetrics metrics = getDescriptor().getMetrics();
+		ScriptMetrics.Sample sample = metrics.start(scriptName, onMaster ? "master" : nodeNameOf(build));
+		Result result = null;
+		String outcome = "ERROR";
+		try {
+			result = runScript(build, launcher, listener, onMaster, sample);
+			outcome = result.toString();
+		} catch (InterruptedException e) {
+			outcome = Result.ABORTED.toString();
+			throw e;
+		} finally {
+			metrics.finish(sample, outcome);
+		}
+		return applyResult(build, listener, result);
+	}
+
+	/**
+	 * Sets the build's result and decides whether the scripts after this one should run.
+	 */
+	private boolean applyResult(AbstractBuild<?, ?> build, BuildListener listener, Result result) {
+		if(build.isBuilding()) {
+			synchronized (build) { //scripts may be running in parallel
+				build.setResult(result);
+			}
+		} else {
+			listener.getLogger().println("The build has already finished, so its result is left as " + build.getResult() + ".");
+		}
+
+		boolean failed = result.isWorseOrEqualTo(Result.FAILURE);
+		if(failed) {
+			if(abortOnFailure) {
+				listener.getLogger().println("Abort on Failure is enabled: Aborting.");
+				return ABORT;
+			} else {
+				listener.getLogger().println("Abort on Failure is disabled: Continuing.");
+				return CONTINUE;
+			}
+		} else {
+			return CONTINUE;
+		}
+	}
+
+	static String nodeNameOf(AbstractBuild<?, ?> build) {
+		String node = build.getBuiltOnStr();
+		return node == null || node.isEmpty() ? "master" : node;
+	}
+
+	private Result runScript(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, boolean onMaster, ScriptMetrics.Sample sample) throws IOException, InterruptedException {
+		Executed executed;
+		ScriptLogAction.Segment logSegment = ScriptLogAction.start(build, listener, scriptName);
+
+		long phaseStart = System.nanoTime();
+		Script script = getDescriptor().getScriptIndex().find(scriptName);
+		sample.record(ScriptMetrics.Phase.DISCOVERY, phaseStart);
+
+		//Read once, so the version that's fingerprinted is the version that runs.
+		String scriptContents = null;
+		if (script != null) {
+			phaseStart = System.nanoTime();
+			scriptContents = script.findScriptContents();
+			sample.record(ScriptMetrics.Phase.FETCH, phaseStart);
+		}
+
+		String fingerprint = null;
+		if (script != null && skipIfUnchanged) {
+			phaseStart = System.nanoTime();
+			fingerprint = fingerprint(build, listener, scriptContents, sample.getNode());
+			ScriptFingerprints.Record previous = fingerprint == null ? null : ScriptFingerprints.of(build.getParent()).get(getFingerprintKey());
+			sample.record(ScriptMetrics.Phase.FINGERPRINT, phaseStart);
+
+			boolean unchanged = previous != null && fingerprint.equals(previous.getFingerprint());
+			getDescriptor().getMetrics().increment("skips", scriptName, sample.getNode(), unchanged ? "hit" : "miss");
+			if(unchanged) {
+				replayInjected(build, listener, previous);
+				ScriptLogAction.end(build, listener, logSegment);
+				return Result.SUCCESS;
+			}
+		}
 
-		final Map<String, Script> runnableScripts = findRunnableScripts();
-		Script script = runnableScripts.get(scriptName);
 		if (script != null) {
 			//If we want to run it on master, do so. But if the job is already running on master, just run it as if the run on master flag isn't set.
-			if (this.runOnMaster && !(launcher instanceof Launcher.LocalLauncher)) {
+			if (onMaster) {
 				listener.getLogger().println("Executing on master");
-				FilePath workspace = Jenkins.getInstance().getRootPath().createTempDir("Workspace", "Temp");
-				listener.getLogger().println("Creating temporary workspace " + workspace.getRemote());
+				MasterExecutionQueue queue = getDescriptor().getMasterQueue();
+				if(queue != null) {
+					phaseStart = System.nanoTime();
+					queue.acquire(build.getParent().getFullName(), listener.getLogger());
+					sample.record(ScriptMetrics.Phase.QUEUE, phaseStart);
+				}
 				try {
-					Launcher masterLauncher = new Launcher.RemoteLauncher(listener, Jenkins.getInstance().getChannel(), true);
-					result = execute(workspace, build, masterLauncher, listener, script);
+					executed = executeOnMaster(build, listener, script, scriptContents, sample);
 				} finally {
-					listener.getLogger().println("Deleting temporary workspace " + workspace.getRemote());
-					workspace.deleteRecursive();
+					if(queue != null) {
+						queue.release();
+					}
 				}
 			} else if(build.getWorkspace() != null) {
 				listener.getLogger().println("Executing on remote machine");
-				result = execute(build.getWorkspace(), build, launcher, listener, script);
+				executed = execute(build.getWorkspace(), build, launcher, listener, script, scriptContents, sample, true);
 			} else {
 				// http://javadoc.jenkins-ci.org/hudson/model/AbstractBuild.html#getWorkspace()
 				// Nullpointer is being thrown.
 				listener.getLogger().println("Slave is no longer connected.");
-				result = Result.FAILURE;
+				executed = new Executed(Result.FAILURE, null, Collections.<String, String>emptyMap());
 			}
 		} else {
 			listener.error("'" + scriptName + "' doesn't exist anymore. Failing.");
-			result = Result.FAILURE;
+			executed = new Executed(Result.FAILURE, null, Collections.<String, String>emptyMap());
 		}
 
-		injectProperties(build, listener);
+		phaseStart = System.nanoTime();
+		Map<String, String> injected = injectProperties(build, listener, executed.call, executed.set);
+		sample.record(ScriptMetrics.Phase.INJECT, phaseStart);
+		Result result = executed.result;
+		if(fingerprint != null && result == Result.SUCCESS) {
+			ScriptFingerprints.of(build.getParent()).put(getFingerprintKey(), new ScriptFingerprints.Record(fingerprint, build.getNumber(), injected));
+		}
+		ScriptLogAction.end(build, listener, logSegment);
 
-		build.setResult(result);
+		return result;
+	}
 
-		boolean failed = result.isWorseOrEqualTo(Result.FAILURE);
-		if(failed) {
-			if(abortOnFailure) {
-				listener.getLogger().println("Abort on Failure is enabled: Aborting.");
-				return ABORT;
+	/**
+	 * Runs the script in a temporary workspace on the master. The caller holds a slot in the master's {@link MasterExecutionQueue}.
+	 */
+	private Executed executeOnMaster(AbstractBuild<?, ?> build, BuildListener listener, Script script, String scriptContents, ScriptMetrics.Sample sample) throws IOException, InterruptedException {
+		long phaseStart = System.nanoTime();
+		MasterWorkspacePool workspacePool = getDescriptor().getWorkspacePool();
+		FilePath workspace;
+		if(workspacePool != null) {
+			workspace = workspacePool.lease(listener.getLogger());
+			listener.getLogger().println("Using temporary workspace " + workspace.getRemote());
+		} else {
+			workspace = Jenkins.getInstance().getRootPath().createTempDir("Workspace", "Temp");
+			listener.getLogger().println("Creating temporary workspace " + workspace.getRemote());
+		}
+		sample.record(ScriptMetrics.Phase.WORKSPACE, phaseStart);
+		try {
+			Launcher masterLauncher = new Launcher.RemoteLauncher(listener, Jenkins.getInstance().getChannel(), true);
+			return execute(workspace, build, masterLauncher, listener, script, scriptContents, sample, false);
+		} finally {
+			phaseStart = System.nanoTime();
+			if(workspacePool != null) {
+				listener.getLogger().println("Releasing temporary workspace " + workspace.getRemote());
+				workspacePool.release(workspace);
 			} else {
-				listener.getLogger().println("Abort on Failure is disabled: Continuing.");
-				return CONTINUE;
+				listener.getLogger().println("Deleting temporary workspace " + workspace.getRemote());
+				workspace.deleteRecursive();
 			}
+			sample.record(ScriptMetrics.Phase.WORKSPACE, phaseStart);
+		}
+	}
+
+	/**
+	 * Whether this script can share a process with the scripts next to it in a batched list. See {@link ScriptBatch}.
+	 * Scripts that run on master, can be skipped, have a timeout, match their output or don't run as a process always run on their own.
+	 */
+	boolean isBatchable() {
+		return !runOnMaster && !skipIfUnchanged
+				&& getExecutionStrategyValue() != ExecutionStrategy.GROOVY
+				&& minutesToMillis(timeout) == 0 && minutesToMillis(idleTimeout) == 0
+				&& getOutputMatcher().isEmpty();
+	}
+
+	/**
+	 * The scripts after this one need the properties it injects, which aren't read until its batch is over, so it has to be the last in its batch.
+	 */
+	boolean endsBatch() {
+		return injectProperties != null && !injectProperties.isEmpty();
+	}
+
+	/**
+	 * Gets everything needed to run the script in a batch, ready to be added to the runner.
+	 *
+	 * @return null if the script doesn't exist anymore.
+	 */
+	ScriptBatch.Entry prepareBatched(AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
+		Script script = getDescriptor().getScriptIndex().find(scriptName);
+		if(script == null) {
+			return null;
+		}
+		String contents = script.findScriptContents();
+		String[] commandLine = new Shell(contents).buildCommandLine(new FilePath(new File(ScriptBatch.SCRIPT_PLACEHOLDER)));
+		return new ScriptBatch.Entry(this, script.getFile().getName(), contents, commandLine, scriptEnvironment(build, listener));
+	}
+
+	Result resultOf(int exitCode) {
+		return ExitCodeParser.findResult(exitCode, getErrorMatcher(), getUnstableMatcher());
+	}
+
+	/**
+	 * Records a script that ran in a batch and applies its result, the same as if it had run on its own.
+	 */
+	boolean finishBatched(AbstractBuild<?, ?> build, BuildListener listener, String node, long startTime, long startNanos, long endNanos, int exitCode, Result result) throws IOException, InterruptedException {
+		long runTime = (endNanos - startNanos) / 1000000;
+		ScriptTimingsAction.record(build, scriptName, runTime);
+		ScriptHistory.record(build, scriptName, startTime, runTime, exitCode, result);
+
+		ScriptMetrics metrics = getDescriptor().getMetrics();
+		ScriptMetrics.Sample sample = metrics.start(scriptName, node);
+		sample.record(ScriptMetrics.Phase.PROCESS, startNanos, endNanos);
+		if(endsBatch()) {
+			long phaseStart = System.nanoTime();
+			injectProperties(build, listener, null, Collections.<String, String>emptyMap());
+			sample.record(ScriptMetrics.Phase.INJECT, phaseStart);
+			sample.record(ScriptMetrics.Phase.TOTAL, startNanos, System.nanoTime());
 		} else {
-			return CONTINUE;
+			sample.record(ScriptMetrics.Phase.TOTAL, startNanos, endNanos);
+		}
+		metrics.finish(sample, result.toString());
+
+		return applyResult(build, listener, result);
+	}
+
+	/**
+	 * Hashes the script, its expanded parameters, the node, the workspace and the declared workspace inputs.
+	 *
+	 * @return null if the build has no workspace, in which case the script just runs.
+	 */
+	private String fingerprint(AbstractBuild<?, ?> build, BuildListener listener, String scriptContents, String node) throws IOException, InterruptedException {
+		FilePath workspace = build.getWorkspace();
+		if(workspace == null) {
+			return null;
 		}
+		String inputs = null;
+		if(Util.fixEmptyAndTrim(skipInputs) != null) {
+			inputs = workspace.act(new InputFingerprint.WorkspaceInputs(skipInputs));
+		}
+		Map<String, String> expandedParameters = injectParameters(parameters, BuildEnvironmentCache.get(build, listener).newEnvVars());
+		return InputFingerprint.of(scriptContents, expandedParameters, node, workspace.getRemote(), inputs);
 	}
 
-	private Map<String, String> injectParameters(List<Parameter> parameters, EnvVars envVars) {
-		Map<String, String> result = new HashMap<String, String>();
+	/**
+	 * Injects what the script injected the last time it ran, in place of running it.
+	 */
+	private void replayInjected(AbstractBuild<?, ?> build, BuildListener listener, ScriptFingerprints.Record previous) throws IOException {
+		PrintStream logger = listener.getLogger();
+		logger.println("========================================");
+		logger.println("Skipping " + getScriptFileName() + ": nothing it depends on has changed since it succeeded in build #" + previous.getBuildNumber() + ".");
+		Map<String, String> injected = previous.getInjected();
+		if(!injected.isEmpty()) {
+			logger.println("injecting properties from build #" + previous.getBuildNumber());
+			addInjected(build, new HashMap<String, String>(injected), logger);
+		}
+		logger.println("========================================");
+		logger.println();
+	}
+
+	/**
+	 * Expands every parameter against the environment as it was before any of them were added.
+	 */
+	static Map<String, String> injectParameters(List<Parameter> parameters, EnvVars envVars) {
+		Map<String, String> result = new HashMap<String, String>(parameters.size() * 4 / 3 + 1);
 		for (Parameter parameter : parameters) {
-			String key = parameter.getParameterKey();
-			String value = envVars.expand(parameter.getParameterValue());
-			result.put(key, value);
+			result.put(parameter.getParameterKey(), parameter.expandValue(envVars));
 		}
 		return result;
 	}
 
-	private Result execute(FilePath workspace, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, Script script) throws IOException, InterruptedException {
-		String scriptContents = script.findScriptContents();
-		int exitCode;
-		CommandInterpreter commandInterpreter;
-		if (launcher.isUnix()) {
-			commandInterpreter = new Shell(scriptContents);
-		} else {
-			commandInterpreter = new BatchFile(scriptContents);
+	/**
+	 * What running the script came to, the call it ran in if it ran as a single {@link RunScriptCallable},
+	 * and the properties its output set.
+	 */
+	private static class Executed {
+		private final Result result;
+		private final RunScriptCallable.Outcome call;
+		private final Map<String, String> set;
+
+		private Executed(Result result, RunScriptCallable.Outcome call, Map<String, String> set) {
+			this.result = result;
+			this.call = call;
+			this.set = set;
 		}
+	}
+
+	/**
+	 * @param inBuildWorkspace Whether the workspace is the build's, where the injected properties are read from.
+	 */
+	private Executed execute(FilePath workspace, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, Script script, String scriptContents, ScriptMetrics.Sample sample, boolean inBuildWorkspace) throws IOException, InterruptedException {
+		long phaseStart;
+		int exitCode;
 
 		PrintStream logger = listener.getLogger();
 		logger.println("========================================");
@@ -138,15 +416,154 @@ public class ScriptBuilder extends Builder {
 		logger.println("----------------------------------------");
 
 		long startTime = System.currentTimeMillis();
-		exitCode = executeScript(workspace, build, launcher, listener, commandInterpreter);
+		ScriptWatchdog watchdog = new ScriptWatchdog(minutesToMillis(timeout), minutesToMillis(idleTimeout));
+		OutputMatcher.Filter filter = getOutputMatcher().isEmpty() ? null : getOutputMatcher().filter(logger, build.getCharset());
+		OutputStream output = watchdog.watch(filter == null ? logger : filter);
+		Result returnedResult = null;
+		RunScriptCallable.Outcome call = null;
+		if(getExecutionStrategyValue() == ExecutionStrategy.GROOVY && GroovyScriptRunner.isGroovy(script)) {
+			GroovyScriptRunner.Run run = startGroovy(workspace, build, listener, scriptContents, sample, output);
+			phaseStart = System.nanoTime();
+			exitCode = watchdog.join(run, logger);
+			sample.record(ScriptMetrics.Phase.PROCESS, phaseStart);
+			returnedResult = run.getResult();
+		} else {
+			CommandInterpreter commandInterpreter;
+			if (launcher.isUnix()) {
+				commandInterpreter = new Shell(scriptContents);
+			} else {
+				commandInterpreter = new BatchFile(scriptContents);
+			}
+			phaseStart = System.nanoTime();
+			FilePath cachedScript = cacheScript(workspace, script, scriptContents, launcher.isUnix(), listener);
+			sample.record(ScriptMetrics.Phase.CACHE, phaseStart);
+			try {
+				if(runsInOneCall(launcher)) {
+					RunScriptCallable.Run run = startCall(workspace, build, listener, commandInterpreter, scriptContents, launcher.isUnix(), cachedScript, sample, output, inBuildWorkspace);
+					phaseStart = System.nanoTime();
+					exitCode = watchdog.join(run, logger);
+					sample.record(ScriptMetrics.Phase.PROCESS, phaseStart);
+					call = run.getValue();
+				} else {
+					exitCode = executeScript(workspace, build, launcher, listener, commandInterpreter, cachedScript, sample, watchdog, output);
+				}
+			} finally {
+				releaseCachedScript(cachedScript, listener);
+			}
+		}
 		long runTime = System.currentTimeMillis() - startTime;
-		Result result = ExitCodeParser.findResult(exitCode, errorMode, errorRange, unstableMode, unstableRange);
+		ScriptTimingsAction.record(build, scriptName, runTime);
+		if(filter != null) {
+			filter.finish();
+		}
+		Result result;
+		ScriptWatchdog.Timeout timedOut = watchdog.getFired();
+		if(timedOut != null) {
+			result = getTimeoutResultValue();
+			getDescriptor().getMetrics().increment("timeouts", scriptName, sample.getNode(), timedOut.name().toLowerCase());
+			logger.println("Killed by " + timedOut.getHumanReadable() + ". " + result + ".");
+		} else if(returnedResult != null) {
+			result = returnedResult;
+		} else {
+			result = ExitCodeParser.findResult(exitCode, getErrorMatcher(), getUnstableMatcher());
+		}
+		if(timedOut == null && filter != null && filter.getResult() != null) {
+			result = result.combine(filter.getResult());
+			logger.println("Output matched " + filter.getResult() + " on: " + filter.getMatchedLine());
+		}
+		ScriptHistory.record(build, scriptName, startTime, runTime, exitCode, result);
 
 		logger.println("----------------------------------------");
 		logger.println(script.getFile().getName() + " finished in " + runTime + "ms.");
 		logger.println("Exit code was " + exitCode + ". " + result + ".");
 
-		return result;
+		return new Executed(result, call, filter == null ? Collections.<String, String>emptyMap() : filter.getSet());
+	}
+
+	/**
+	 * Whether the script can be written, run, read back and deleted in one {@link RunScriptCallable} instead of a remote call for each step.
+	 * Only for the stock launchers: anything else may be decorating the launch, so it's left to launch the process itself.
+	 */
+	private boolean runsInOneCall(Launcher launcher) {
+		if(getExecutionStrategyValue() != ExecutionStrategy.PROCESS) {
+			return false;
+		}
+		Class<?> launcherClass = launcher.getClass();
+		return launcherClass == Launcher.LocalLauncher.class || launcherClass == Launcher.RemoteLauncher.class;
+	}
+
+	private RunScriptCallable.Run startCall(FilePath ws, AbstractBuild<?, ?> build, BuildListener listener, CommandInterpreter command, String scriptContents, boolean isUnix, FilePath cachedScript, ScriptMetrics.Sample sample, OutputStream output, boolean readInjected) throws IOException, InterruptedException {
+		long phaseStart = System.nanoTime();
+		EnvVars envVars = scriptEnvironment(build, listener);
+		sample.record(ScriptMetrics.Phase.ENVIRONMENT, phaseStart);
+
+		String[] commandLine = command.buildCommandLine(new FilePath(new File(RunScriptCallable.SCRIPT_PLACEHOLDER)));
+		DescriptorImpl descriptor = getDescriptor();
+		RunScriptCallable callable = new RunScriptCallable(ws, cachedScript, ScriptCache.fileContentsOf(scriptContents, isUnix), ScriptCache.fileExtensionFor(isUnix), commandLine, envVars,
+				output, readInjected ? getInjectProperties() : null,
+				new InjectedPropertiesReader(descriptor.getMaxInjectedKeys(), descriptor.getMaxInjectedBytes()));
+		try {
+			return callable.start(ws.getChannel());
+		} catch (IOException e) {
+			Util.displayIOException(e, listener);
+			e.printStackTrace(listener.fatalError(Messages.CommandInterpreter_CommandFailed()));
+			throw e;
+		}
+	}
+
+	/**
+	 * Starts a .groovy script in the workspace's JVM, with the same environment it would get as a process.
+	 */
+	private GroovyScriptRunner.Run startGroovy(FilePath ws, AbstractBuild<?, ?> build, BuildListener listener, String scriptContents, ScriptMetrics.Sample sample, OutputStream output) throws IOException, InterruptedException {
+		long phaseStart = System.nanoTime();
+		EnvVars envVars = scriptEnvironment(build, listener);
+		Map<String, String> parameterValues = new HashMap<String, String>(parameters.size() * 4 / 3 + 1);
+		for (Parameter parameter : parameters) {
+			parameterValues.put(parameter.getParameterKey(), envVars.get(parameter.getParameterKey()));
+		}
+		sample.record(ScriptMetrics.Phase.ENVIRONMENT, phaseStart);
+		return GroovyScriptRunner.start(build, ws, scriptName, scriptContents, envVars, parameterValues, output);
+	}
+
+	/**
+	 * Puts the script into the node's {@link ScriptCache}.
+	 *
+	 * @return The cached script file on the node, pinned until it's given to {@link ScriptCache#release(FilePath)},
+	 * 			or null if caching is disabled or failed, in which case the script should be written to the workspace as usual.
+	 */
+	private FilePath cacheScript(FilePath workspace, Script script, String scriptContents, boolean isUnix, BuildListener listener) {
+		DescriptorImpl descriptor = getDescriptor();
+		long maxBytes = descriptor.getScriptCacheBytes();
+		if(maxBytes <= 0) {
+			return null;
+		}
+
+		FilePath cacheRoot = ScriptCache.cacheRootFor(workspace);
+		if(cacheRoot == null) {
+			return null;
+		}
+
+		try {
+			return descriptor.getScriptCache().cache(cacheRoot, script, scriptContents, isUnix, maxBytes);
+		} catch (IOException e) {
+			listener.getLogger().println("Unable to use the script cache, falling back to the workspace: " + e.getMessage());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static void releaseCachedScript(FilePath cachedScript, BuildListener listener) throws InterruptedException {
+		if(cachedScript == null) {
+			return;
+		}
+		try {
+			ScriptCache.release(cachedScript);
+		} catch (IOException e) {
+			//The node's gone, and its pins with it.
+			listener.getLogger().println("Unable to release the cached script " + cachedScript.getRemote() + ": " + e.getMessage());
+		}
 	}
 
 	/**
@@ -166,45 +583,29 @@ public class ScriptBuilder extends Builder {
 	 *  The reason I do this is because the exit code provides useful user customization.
 	 *  So now the user can define if the script fails or goes unstable or even remains successful for certain exit codes.
 	 * </p>
+	 * <p>
+	 *  If a cached script file is given, it's run in place and isn't deleted afterward.
+	 * </p>
 	 */
-	private int executeScript(FilePath ws, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, CommandInterpreter command) throws InterruptedException, IOException {
+	private int executeScript(FilePath ws, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, CommandInterpreter command, FilePath cachedScript, ScriptMetrics.Sample sample, ScriptWatchdog watchdog, OutputStream output) throws InterruptedException, IOException {
 		FilePath script = null;
 		try {
+			if(cachedScript != null) {
+				return launchScript(ws, build, launcher, listener, command, cachedScript, sample, watchdog, output);
+			}
+
+			long phaseStart = System.nanoTime();
 			try {
 				script = command.createScriptFile(ws);
 			} catch (IOException e) {
 				Util.displayIOException(e, listener);
 				e.printStackTrace(listener.fatalError(Messages.CommandInterpreter_UnableToProduceScript()));
 				return -2;
+			} finally {
+				sample.record(ScriptMetrics.Phase.CREATE_SCRIPT, phaseStart);
 			}
 
-			int exitCode;
-			try {
-				EnvVars envVars = build.getEnvironment(listener);
-
-				Map<String, String> varsToInject = injectParameters(parameters, envVars);
-				envVars.putAll(varsToInject);
-				envVars.put("BUILD_RESULT", String.valueOf(build.getResult()));
-
-				// on Windows environment variables are converted to all upper case,
-				// but no such conversions are done on Unix, so to make this cross-platform,
-				// convert variables to all upper cases.
-				for (Map.Entry<String, String> e : build.getBuildVariables().entrySet()) {
-					envVars.put(e.getKey(), e.getValue());
-				}
-
-				Launcher.ProcStarter launch = launcher.launch();
-				Launcher.ProcStarter cmds = launch.cmds(command.buildCommandLine(script));
-				Launcher.ProcStarter envs = cmds.envs(envVars);
-				Launcher.ProcStarter stdout = envs.stdout(listener);
-				Launcher.ProcStarter pwd = stdout.pwd(ws);
-				exitCode = pwd.join();
-			} catch (IOException e) {
-				Util.displayIOException(e, listener);
-				e.printStackTrace(listener.fatalError(Messages.CommandInterpreter_CommandFailed()));
-				throw e;
-			}
-			return exitCode;
+			return launchScript(ws, build, launcher, listener, command, script, sample, watchdog, output);
 		} finally {
 			try {
 				if (script != null) {
@@ -217,30 +618,121 @@ public class ScriptBuilder extends Builder {
 		}
 	}
 
-	private void injectProperties(AbstractBuild<?, ?> build, BuildListener listener) throws IOException {
+	private int launchScript(FilePath ws, AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener, CommandInterpreter command, FilePath script, ScriptMetrics.Sample sample, ScriptWatchdog watchdog, OutputStream output) throws InterruptedException, IOException {
+		int exitCode;
+		try {
+			long phaseStart = System.nanoTime();
+			EnvVars envVars = scriptEnvironment(build, listener);
+			sample.record(ScriptMetrics.Phase.ENVIRONMENT, phaseStart);
+
+			phaseStart = System.nanoTime();
+			Proc proc;
+			if(getExecutionStrategyValue() == ExecutionStrategy.WARM_SHELL && launcher.isUnix() && WarmShell.canSet(envVars)) {
+				proc = WarmShell.start(build, sample.getNode(), launcher, ws, command.buildCommandLine(script), envVars, output);
+			} else {
+				Launcher.ProcStarter launch = launcher.launch();
+				Launcher.ProcStarter cmds = launch.cmds(command.buildCommandLine(script));
+				Launcher.ProcStarter envs = cmds.envs(envVars);
+				Launcher.ProcStarter stdout = envs.stdout(output);
+				Launcher.ProcStarter pwd = stdout.pwd(ws);
+				proc = pwd.start();
+			}
+			exitCode = watchdog.join(proc, listener.getLogger());
+			sample.record(ScriptMetrics.Phase.PROCESS, phaseStart);
+		} catch (IOException e) {
+			Util.displayIOException(e, listener);
+			e.printStackTrace(listener.fatalError(Messages.CommandInterpreter_CommandFailed()));
+			throw e;
+		}
+		return exitCode;
+	}
+
+	/**
+	 * The build's environment plus the script's expanded parameters and the build variables.
+	 */
+	private EnvVars scriptEnvironment(AbstractBuild<?, ?> build, BuildListener listener) throws IOException, InterruptedException {
+		BuildEnvironmentCache.Snapshot environment = BuildEnvironmentCache.get(build, listener);
+		EnvVars envVars = environment.newEnvVars();
+
+		Map<String, String> varsToInject = injectParameters(parameters, envVars);
+		envVars.putAll(varsToInject);
+		envVars.put("BUILD_RESULT", String.valueOf(build.getResult()));
+
+		// on Windows environment variables are converted to all upper case,
+		// but no such conversions are done on Unix, so to make this cross-platform,
+		// convert variables to all upper cases.
+		for (Map.Entry<String, String> e : environment.getBuildVariables().entrySet()) {
+			envVars.put(e.getKey(), e.getValue());
+		}
+		return envVars;
+	}
+
+	/**
+	 * @param call The call the script ran in, which may have read the properties already. Null to read them now.
+	 * @param set What the script's <code>##set</code> lines set, injected before the file's properties.
+	 * @return The injected properties, empty if there's nothing to inject from.
+	 */
+	private Map<String, String> injectProperties(AbstractBuild<?, ?> build, BuildListener listener, RunScriptCallable.Outcome call, Map<String, String> set) throws IOException, InterruptedException {
 		PrintStream logger = listener.getLogger();
 
+		Map<String, String> result = Collections.emptyMap();
+		if (!set.isEmpty()) {
+			logger.println("injecting properties from ##set lines");
+			result = set;
+			addInjected(build, set, logger);
+		}
 		if (getInjectProperties() != null && !getInjectProperties().isEmpty()) {
 			logger.println("injecting properties from " + getInjectProperties());
 
-			FilePath filePath = new FilePath(build.getWorkspace(), getInjectProperties());
-			Properties injectedProperties = new Properties();
-			InputStream read = filePath.read();
-			try {
-				injectedProperties.load(read);
-			} finally {
-				read.close();
+			Map<String, String> fromFile = call == null ? null : call.getInjected();
+			if(fromFile == null) {
+				DescriptorImpl descriptor = getDescriptor();
+				FilePath filePath = new FilePath(build.getWorkspace(), getInjectProperties());
+				fromFile = filePath.act(new InjectedPropertiesReader(descriptor.getMaxInjectedKeys(), descriptor.getMaxInjectedBytes()));
 			}
-
-			Map<String, String> result = new HashMap<String, String>(injectedProperties.size());
-			for (Map.Entry<Object, Object> entry : injectedProperties.entrySet()) {
-				logger.println("\t" + entry.getKey() + " => " + entry.getValue());
-				result.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+			addInjected(build, fromFile, logger);
+			if(result.isEmpty()) {
+				result = fromFile;
+			} else {
+				result = new HashMap<String, String>(result);
+				result.putAll(fromFile);
 			}
-			build.addAction(new InjectPropertiesAction(result));
 		}
 		logger.println("========================================");
 		logger.println();
+		return result;
+	}
+
+	private void addInjected(AbstractBuild<?, ?> build, Map<String, String> injected, PrintStream logger) throws IOException {
+		if(logInjectedSummary) {
+			logInjectedSummary(build, injected, logger);
+		} else {
+			for (Map.Entry<String, String> entry : injected.entrySet()) {
+				logger.println("\t" + entry.getKey() + " => " + entry.getValue());
+			}
+		}
+		if(build.isBuilding()) {
+			build.addAction(new InjectPropertiesAction(injected));
+		}
+	}
+
+	/**
+	 * Prints how many properties were injected and which ones are new or changed from what earlier scripts injected.
+	 */
+	private void logInjectedSummary(AbstractBuild<?, ?> build, Map<String, String> injected, PrintStream logger) {
+		Map<String, String> previous = new HashMap<String, String>();
+		for (InjectPropertiesAction action : build.getActions(InjectPropertiesAction.class)) {
+			previous.putAll(action.getInjectedVariables());
+		}
+
+		SortedSet<String> changed = new TreeSet<String>();
+		for (Map.Entry<String, String> entry : injected.entrySet()) {
+			if(!entry.getValue().equals(previous.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+
+		logger.println("\tInjected " + injected.size() + " properties. " + changed.size() + " new or changed" + (changed.isEmpty() ? "." : ": " + Util.join(changed, ", ")));
 	}
 
 	@Exported
@@ -291,54 +783,409 @@ public class ScriptBuilder extends Builder {
 		return runOnMaster;
 	}
 
+	/**
+	 * Other scripts in the same list that must finish before this one starts when the list is run in parallel.
+	 * Separated by commas or whitespace. Each one can be the full path, the path relative to userContent, or just the file name.
+	 */
+	@Exported
+	public String getDependsOn() {
+		return dependsOn;
+	}
+
+	/**
+	 * If true only the number of injected properties and the names of the ones that changed are printed, rather than every key and value.
+	 */
+	@Exported
+	public boolean getLogInjectedSummary() {
+		return logInjectedSummary;
+	}
+
+	/**
+	 * How many minutes the script can run before it's killed. Empty for no limit.
+	 */
+	@Exported
+	public String getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * How many minutes the script can go without writing any output before it's killed. Empty for no limit.
+	 */
+	@Exported
+	public String getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	/**
+	 * The result of a script that was killed by either timeout.
+	 */
+	@Exported
+	public String getTimeoutResult() {
+		return timeoutResult;
+	}
+
+	/**
+	 * If true the script is skipped when its contents, expanded parameters, node and input files are the same as the last time it succeeded.
+	 * The properties it injected then are injected again.
+	 */
+	@Exported
+	public boolean getSkipIfUnchanged() {
+		return skipIfUnchanged;
+	}
+
+	/**
+	 * Workspace files the script reads, as Ant globs separated by commas or whitespace. Only used when {@link #getSkipIfUnchanged()} is set.
+	 */
+	@Exported
+	public String getSkipInputs() {
+		return skipInputs;
+	}
+
+	/**
+	 * How the script's process is started. Null for scripts saved before there was a choice, which start a new process.
+	 */
+	@Exported
+	public ExecutionStrategy getExecutionStrategy() {
+		return executionStrategy;
+	}
+
+	/**
+	 * Regular expressions, one per line, that fail the script if any line of its output matches.
+	 */
+	@Exported
+	public String getFailOnOutput() {
+		return failOnOutput;
+	}
+
+	/**
+	 * Regular expressions, one per line, that make the script unstable if any line of its output matches.
+	 */
+	@Exported
+	public String getUnstableOnOutput() {
+		return unstableOnOutput;
+	}
+
+	/**
+	 * Whether <code>##set KEY=VALUE</code> lines in the script's output inject properties.
+	 */
+	@Exported
+	public boolean getSetFromOutput() {
+		return setFromOutput;
+	}
+
+	/**
+	 * The strategy to actually use. Warm shells are only used on Unix nodes, and in-process Groovy only for .groovy scripts;
+	 * anything else gets a new process.
+	 */
+	public ExecutionStrategy getExecutionStrategyValue() {
+		return executionStrategy == null ? ExecutionStrategy.PROCESS : executionStrategy;
+	}
+
+	/**
+	 * Tells this script apart from others in the same job, including the same script run with different parameters.
+	 */
+	String getFingerprintKey() {
+		StringBuilder key = new StringBuilder(scriptName);
+		for (Parameter parameter : parameters) {
+			key.append('\n').append(parameter.getParameter());
+		}
+		return key.toString();
+	}
+
+	public Result getTimeoutResultValue() {
+		if(timeoutResult == null || timeoutResult.isEmpty()) {
+			return Result.FAILURE;
+		}
+		return Result.fromString(timeoutResult);
+	}
+
+	/**
+	 * @return Zero if the value is empty or invalid.
+	 */
+	static long minutesToMillis(String minutes) {
+		if(minutes == null || minutes.trim().isEmpty()) {
+			return 0;
+		}
+		try {
+			return Math.max(0, (long) (Double.parseDouble(minutes.trim()) * 60 * 1000));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public List<String> getDependsOnList() {
+		if(dependsOn == null || dependsOn.trim().isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(dependsOn.trim().split("[,\\s]+"));
+	}
+
+	/**
+	 * @return true if the given name is this script's full path, its path relative to userContent, or its file name.
+	 */
+	public boolean isNamed(String name) {
+		if(scriptName == null || name == null || name.isEmpty()) {
+			return false;
+		}
+		String normalizedScriptName = scriptName.replace('\\', '/');
+		String normalizedName = name.replace('\\', '/');
+		return normalizedScriptName.equals(normalizedName) || normalizedScriptName.endsWith("/" + normalizedName);
+	}
+
+	public String getScriptFileName() {
+		if(scriptName == null) {
+			return "";
+		}
+		return new File(scriptName).getName();
+	}
+
+	private ExitCodeMatcher getErrorMatcher() {
+		if(errorMatcher == null) {
+			errorMatcher = ExitCodeMatcher.compile(errorMode, errorRange);
+		}
+		return errorMatcher;
+	}
+
+	private ExitCodeMatcher getUnstableMatcher() {
+		if(unstableMatcher == null) {
+			unstableMatcher = ExitCodeMatcher.compile(unstableMode, unstableRange);
+		}
+		return unstableMatcher;
+	}
+
+	private OutputMatcher getOutputMatcher() {
+		if(outputMatcher == null) {
+			outputMatcher = OutputMatcher.compile(failOnOutput, unstableOnOutput, setFromOutput);
+		}
+		return outputMatcher;
+	}
+
 	@Override
 	public DescriptorImpl getDescriptor() {
 		return (DescriptorImpl) super.getDescriptor();
 	}
 
 	public Map<String, Script> findRunnableScripts() throws IOException, InterruptedException {
-		FilePath rootPath = Jenkins.getInstance().getRootPath();
-		FilePath userContent = new FilePath(rootPath, "userContent");
-
-		DescriptorImpl descriptor = getDescriptor();
-		return descriptor.findRunnableScripts(userContent);
+		return getDescriptor().getScriptIndex().getScripts();
 	}
 
 	@Extension
 	public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
-		public String fileTypes;
+		public static final int DEFAULT_SCRIPT_CACHE_SIZE = 64;
+		public static final int DEFAULT_SEARCH_LIMIT = 50;
+		public static final int MAX_SEARCH_LIMIT = 1000;
+		public static final int DEFAULT_MAX_INJECTED_KEYS = 10000;
+		public static final long DEFAULT_MAX_INJECTED_BYTES = 1024 * 1024;
+
+		//Only what's saved to disk. Everything reads the settings from config.
+		private String fileTypes;
+		private Integer scriptCacheSize; //in MB
+		private Integer workspacePoolSize;
+		private Integer maxInjectedKeys;
+		private Long maxInjectedBytes;
+		private String workspacePoolLocation;
+		private Integer masterSlots;
+		private Boolean masterQueueFair;
+
+		private transient volatile Config config;
+		private transient volatile ScriptIndex scriptIndex;
+		private transient MasterWorkspacePool workspacePool; //guarded by this
+		private transient MasterExecutionQueue masterQueue; //guarded by this
+		private final transient ScriptCache scriptCache = new ScriptCache();
+		private final transient ScriptMetrics metrics = new ScriptMetrics();
+
+		public DescriptorImpl() {
+			load();
+			config = new Config(fileTypes, scriptCacheSize, workspacePoolSize, workspacePoolLocation, maxInjectedKeys, maxInjectedBytes, masterSlots, masterQueueFair);
+		}
 
 		@Override
 		public boolean configure(StaplerRequest request, JSONObject formData) throws FormException {
-			fileTypes = formData.getString("fileTypes");
-			save();
+			Config updated;
+			try {
+				updated = new Config(
+						formData.getString("fileTypes"),
+						formData.optInt("scriptCacheSize", DEFAULT_SCRIPT_CACHE_SIZE),
+						formData.optInt("workspacePoolSize", MasterWorkspacePool.DEFAULT_SIZE),
+						Util.fixEmptyAndTrim(formData.optString("workspacePoolLocation")),
+						formData.optInt("maxInjectedKeys", DEFAULT_MAX_INJECTED_KEYS),
+						formData.optLong("maxInjectedBytes", DEFAULT_MAX_INJECTED_BYTES),
+						formData.optInt("masterSlots", MasterExecutionQueue.DEFAULT_SLOTS),
+						formData.optBoolean("masterQueueFair", true)
+				);
+			} catch (IllegalArgumentException e) {
+				throw new FormException(e.getMessage(), "fileTypes");
+			}
+
+			synchronized (this) {
+				fileTypes = updated.fileTypes;
+				scriptCacheSize = updated.scriptCacheSize;
+				workspacePoolSize = updated.workspacePoolSize;
+				workspacePoolLocation = updated.workspacePoolLocation;
+				maxInjectedKeys = updated.maxInjectedKeys;
+				maxInjectedBytes = updated.maxInjectedBytes;
+				masterSlots = updated.masterSlots;
+				masterQueueFair = updated.masterQueueFair;
+				config = updated;
+				save();
+			}
+			getScriptIndex().setFileTypes(updated.fileTypeMatcher);
 			return super.configure(request, formData);
 		}
 
 		public String getFileTypes() {
-			load();
-			if (fileTypes == null || fileTypes.isEmpty()) {
-				return ".*";
+			return config.fileTypes;
+		}
+
+		public FileTypeMatcher getFileTypeMatcher() {
+			return config.fileTypeMatcher;
+		}
+
+		/**
+		 * The maximum size of each node's script cache in MB. Zero disables the cache.
+		 */
+		public int getScriptCacheSize() {
+			return config.scriptCacheSize;
+		}
+
+		public long getScriptCacheBytes() {
+			return getScriptCacheSize() * 1024L * 1024L;
+		}
+
+		public ScriptCache getScriptCache() {
+			return scriptCache;
+		}
+
+		/**
+		 * Timings and counts of every script run since Jenkins started. Served at /scriptApi/metrics.
+		 */
+		public ScriptMetrics getMetrics() {
+			return metrics;
+		}
+
+		/**
+		 * The most properties a single script can inject.
+		 */
+		public int getMaxInjectedKeys() {
+			return config.maxInjectedKeys;
+		}
+
+		/**
+		 * The largest file a script can inject properties from.
+		 */
+		public long getMaxInjectedBytes() {
+			return config.maxInjectedBytes;
+		}
+
+		/**
+		 * How many reusable workspaces scripts that run on master can use at once. Zero creates and deletes a new workspace for every run.
+		 */
+		public int getWorkspacePoolSize() {
+			return config.workspacePoolSize;
+		}
+
+		/**
+		 * Where the reusable master workspaces are kept, e.g. a tmpfs mount. Relative paths are relative to the Jenkins root directory.
+		 */
+		public String getWorkspacePoolLocation() {
+			return config.workspacePoolLocation;
+		}
+
+		/**
+		 * @return The pool of master workspaces, or null if pooling is disabled.
+		 */
+		public synchronized MasterWorkspacePool getWorkspacePool() {
+			int size = getWorkspacePoolSize();
+			if(size <= 0) {
+				if(workspacePool != null) {
+					workspacePool.shutdown();
+					workspacePool = null;
+				}
+				return null;
 			}
-			return fileTypes;
+
+			File location = new File(getWorkspacePoolLocation());
+			if(!location.isAbsolute()) {
+				location = new File(Jenkins.getInstance().getRootDir(), getWorkspacePoolLocation());
+			}
+			if(workspacePool == null || workspacePool.getSize() != size || !workspacePool.getRoot().equals(location)) {
+				if(workspacePool != null) {
+					workspacePool.shutdown();
+				}
+				workspacePool = new MasterWorkspacePool(location, size);
+			}
+			return workspacePool;
 		}
 
-		@Exported
-		public ListBoxModel doFillScriptNameItems() {
-			FilePath rootPath = Jenkins.getInstance().getRootPath();
-			FilePath userContent = new FilePath(rootPath, "userContent");
+		/**
+		 * How many scripts can run on master at once. Zero for no limit.
+		 */
+		public int getMasterSlots() {
+			return config.masterSlots;
+		}
 
-			ListBoxModel items = new ListBoxModel();
-			SortedSet<Script> values = new TreeSet<Script>(findRunnableScripts(userContent).values());
-			for (Script script : values) {
-				//Pretty up the name
-				String path = script.getFile().getRemote();
-				path = path.substring(userContent.getRemote().length() + 1);
+		/**
+		 * Whether jobs take turns for the master's slots, rather than scripts getting them in the order they asked.
+		 */
+		public boolean getMasterQueueFair() {
+			return config.masterQueueFair;
+		}
 
-				items.add(path, script.getFile().getRemote());
+		/**
+		 * @return The queue scripts wait in to run on master, or null if there's no limit.
+		 */
+		public synchronized MasterExecutionQueue getMasterQueue() {
+			int slots = getMasterSlots();
+			if(slots <= 0) {
+				return null;
+			}
+			if(masterQueue == null) {
+				masterQueue = new MasterExecutionQueue(slots, getMasterQueueFair());
+			} else if(masterQueue.getSlots() != slots || masterQueue.isFair() != getMasterQueueFair()) {
+				//Resized rather than replaced, so the scripts already running still count.
+				masterQueue.resize(slots, getMasterQueueFair());
 			}
+			return masterQueue;
+		}
 
-			return items;
+		/**
+		 * Suggests scripts for the Script Name box as the user types.
+		 */
+		public AutoCompletionCandidates doAutoCompleteScriptName(@QueryParameter String value) {
+			AutoCompletionCandidates candidates = new AutoCompletionCandidates();
+			for (String path : getScriptIndex().search(value, DEFAULT_SEARCH_LIMIT).getPaths()) {
+				candidates.add(path);
+			}
+			return candidates;
+		}
+
+		/**
+		 * Scripts whose path relative to userContent contains <code>q</code>, as JSON: the first <code>limit</code> paths and the total number of matches.
+		 */
+		public void doSearchScripts(StaplerResponse response, @QueryParameter String q, @QueryParameter String limit) throws IOException {
+			int max = DEFAULT_SEARCH_LIMIT;
+			if(limit != null && limit.matches("\\d+")) {
+				//Anything too long to be an int is over the maximum anyway.
+				max = limit.length() > 9 ? MAX_SEARCH_LIMIT : Math.min(Integer.parseInt(limit), MAX_SEARCH_LIMIT);
+			}
+			ScriptIndex.SearchResult result = getScriptIndex().search(q, max);
+
+			JSONObject json = new JSONObject();
+			json.put("total", result.getTotal());
+			json.put("paths", JSONArray.fromObject(result.getPaths()));
+
+			response.setContentType("application/json;charset=UTF-8");
+			response.getWriter().print(json.toString());
+		}
+
+		public FormValidation doCheckScriptName(@QueryParameter String value) {
+			if(value == null || value.trim().isEmpty()) {
+				return FormValidation.error("A script is required.");
+			}
+			if(getScriptIndex().find(value.trim()) == null) {
+				return FormValidation.warning("'" + value + "' isn't a runnable script in userContent.");
+			}
+			return FormValidation.ok();
 		}
 
 		@Exported
@@ -346,19 +1193,28 @@ public class ScriptBuilder extends Builder {
 			return UUID.randomUUID().toString().replaceAll("-", "");
 		}
 
-		private Map<String, Script> findRunnableScripts(FilePath userContent) {
-			final List<String> fileTypes = Arrays.asList(this.getFileTypes().split("\\s+"));
-			try {
-				Map<String, Script> result = userContent.act(new FindScriptsOnMaster(userContent, fileTypes));
-				if(result == null) {
-					result = Collections.emptyMap();
+		/**
+		 * The index of runnable scripts in userContent. Created on first use; kept current by {@link ScriptIndexWatcher}.
+		 */
+		public ScriptIndex getScriptIndex() {
+			ScriptIndex result = scriptIndex;
+			if(result == null) {
+				synchronized (this) {
+					result = scriptIndex;
+					if(result == null) {
+						scriptIndex = result = new ScriptIndex(getUserContent(), getFileTypeMatcher());
+					}
 				}
-				return result;
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
 			}
+			return result;
+		}
+
+		/**
+		 * @return null when there's no Jenkins, e.g. in unit tests.
+		 */
+		static File getUserContent() {
+			Jenkins jenkins = Jenkins.getInstance();
+			return jenkins == null ? null : new File(jenkins.getRootDir(), "userContent");
 		}
 
 		public ListBoxModel doFillErrorModeItems() {
@@ -374,6 +1230,129 @@ public class ScriptBuilder extends Builder {
 			return doFillErrorModeItems();
 		}
 
+		public FormValidation doCheckFileTypes(@QueryParameter String value) {
+			try {
+				FileTypeMatcher.compile(value);
+				return FormValidation.ok();
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		public FormValidation doCheckFailOnOutput(@QueryParameter String value) {
+			return checkPatterns(value);
+		}
+
+		public FormValidation doCheckUnstableOnOutput(@QueryParameter String value) {
+			return checkPatterns(value);
+		}
+
+		private FormValidation checkPatterns(String value) {
+			try {
+				OutputMatcher.compile(value, null, false);
+				return FormValidation.ok();
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		public ListBoxModel doFillExecutionStrategyItems() {
+			ListBoxModel items = new ListBoxModel();
+			for (ExecutionStrategy strategy : ExecutionStrategy.values()) {
+				items.add(strategy.getHumanReadable(), strategy.toString());
+			}
+			return items;
+		}
+
+		public ListBoxModel doFillTimeoutResultItems() {
+			ListBoxModel items = new ListBoxModel();
+			for (Result result : new Result[]{Result.FAILURE, Result.UNSTABLE, Result.ABORTED}) {
+				items.add(result.toString(), result.toString());
+			}
+			return items;
+		}
+
+		public FormValidation doCheckTimeout(@QueryParameter String executionStrategy, @QueryParameter String value) {
+			return checkTimeout(executionStrategy, value);
+		}
+
+		public FormValidation doCheckIdleTimeout(@QueryParameter String executionStrategy, @QueryParameter String value) {
+			return checkTimeout(executionStrategy, value);
+		}
+
+		/**
+		 * Groovy scripts can only be interrupted, so a timeout is no guarantee they stop.
+		 */
+		private FormValidation checkTimeout(String executionStrategy, String value) {
+			FormValidation minutes = checkMinutes(value);
+			if(minutes.kind == FormValidation.Kind.OK && value != null && !value.trim().isEmpty()
+					&& ExecutionStrategy.GROOVY.toString().equals(executionStrategy)) {
+				return FormValidation.warning("In-Process Groovy scripts are only interrupted on timeout. One that ignores interrupts keeps running.");
+			}
+			return minutes;
+		}
+
+		private FormValidation checkMinutes(String value) {
+			if(value == null || value.trim().isEmpty()) {
+				return FormValidation.ok();
+			}
+			try {
+				if(Double.parseDouble(value.trim()) < 0) {
+					return FormValidation.error("Must not be negative.");
+				}
+				return FormValidation.ok();
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Must be a number of minutes.");
+			}
+		}
+
+		public FormValidation doCheckErrorRange(@QueryParameter String errorMode, @QueryParameter String value) {
+			return checkRange(errorMode, value);
+		}
+
+		public FormValidation doCheckUnstableRange(@QueryParameter String unstableMode, @QueryParameter String value) {
+			return checkRange(unstableMode, value);
+		}
+
+		private FormValidation checkRange(String mode, String range) {
+			if(mode == null || mode.isEmpty()) {
+				return FormValidation.ok();
+			}
+			try {
+				ExitCodeMatcher.compile(ErrorMode.valueOf(mode), range);
+				return FormValidation.ok();
+			} catch (IllegalArgumentException e) {
+				return FormValidation.error(e.getMessage());
+			}
+		}
+
+		/**
+		 * The global settings with defaults filled in. Never changed once created; {@link #configure} swaps in a new one.
+		 */
+		private static final class Config {
+			private final String fileTypes;
+			private final FileTypeMatcher fileTypeMatcher;
+			private final int scriptCacheSize;
+			private final int workspacePoolSize;
+			private final String workspacePoolLocation;
+			private final int maxInjectedKeys;
+			private final long maxInjectedBytes;
+			private final int masterSlots;
+			private final boolean masterQueueFair;
+
+			private Config(String fileTypes, Integer scriptCacheSize, Integer workspacePoolSize, String workspacePoolLocation, Integer maxInjectedKeys, Long maxInjectedBytes, Integer masterSlots, Boolean masterQueueFair) {
+				this.fileTypes = fileTypes == null || fileTypes.trim().isEmpty() ? FileTypeMatcher.ANY_EXECUTABLE : fileTypes.trim();
+				this.fileTypeMatcher = FileTypeMatcher.compile(this.fileTypes);
+				this.scriptCacheSize = scriptCacheSize == null || scriptCacheSize < 0 ? DEFAULT_SCRIPT_CACHE_SIZE : scriptCacheSize;
+				this.workspacePoolSize = workspacePoolSize == null || workspacePoolSize < 0 ? MasterWorkspacePool.DEFAULT_SIZE : workspacePoolSize;
+				this.workspacePoolLocation = workspacePoolLocation == null || workspacePoolLocation.isEmpty() ? MasterWorkspacePool.DEFAULT_LOCATION : workspacePoolLocation;
+				this.maxInjectedKeys = maxInjectedKeys == null || maxInjectedKeys <= 0 ? DEFAULT_MAX_INJECTED_KEYS : maxInjectedKeys;
+				this.maxInjectedBytes = maxInjectedBytes == null || maxInjectedBytes <= 0 ? DEFAULT_MAX_INJECTED_BYTES : maxInjectedBytes;
+				this.masterSlots = masterSlots == null || masterSlots < 0 ? MasterExecutionQueue.DEFAULT_SLOTS : masterSlots;
+				this.masterQueueFair = masterQueueFair == null || masterQueueFair;
+			}
+		}
+
 		@Override
 		public boolean isApplicable(Class<? extends AbstractProject> jobType) {
 			return true;
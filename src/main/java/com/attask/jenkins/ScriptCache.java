@@ -0,0 +1,269 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import jenkins.model.Jenkins;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content-addressed cache of scripts on each node.
+ * <p/>
+ * Scripts are stored under {@link #CACHE_DIRECTORY} in the node's root directory, named by the SHA-1 of their contents.
+ * The master only ships the contents of a script when the node doesn't already have that version,
+ * and the cached file is executed in place rather than being written into the workspace on every run.
+ * Each node's cache is bounded in size; the least recently used scripts are evicted first.
+ * A script is pinned from when it's cached until {@link #release(FilePath)}, so it's never evicted while a build is running it.
+ * The pins are kept in the node's JVM, along with the lock that eviction takes.
+ */
+public class ScriptCache {
+	private static final Logger LOGGER = Logger.getLogger(ScriptCache.class.getName());
+	public static final String CACHE_DIRECTORY = "scriptCache";
+	private static final int RECENT_SCRIPTS = 50;
+
+	//Cached files that scripts are running from, by path, with how many are. Only used in the node's JVM. Guarded by itself.
+	private static final Map<String, Integer> PINNED = new HashMap<String, Integer>();
+
+	private final Map<String, String> recentlyUsed = new LinkedHashMap<String, String>(16, 0.75f, true) { //guarded by this
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > RECENT_SCRIPTS;
+		}
+	};
+
+	/**
+	 * Makes sure the given version of a script exists in the node's cache, sending it over only if it's missing.
+	 * The file is pinned until it's given to {@link #release(FilePath)}.
+	 *
+	 * @param cacheRoot The cache directory on the node the script will run on.
+	 * @param script The script file on the master.
+	 * @param contents The script's contents, as read for this run.
+	 * @param isUnix Whether the node runs shell scripts rather than batch files.
+	 * @param maxBytes The maximum size of the node's cache.
+	 * @return The cached file on the node.
+	 */
+	public FilePath cache(FilePath cacheRoot, Script script, String contents, boolean isUnix, long maxBytes) throws IOException, InterruptedException {
+		String extension = fileExtensionFor(isUnix);
+		String fileContents = fileContentsOf(contents, isUnix);
+		String hash = sha1(fileContents);
+		synchronized (this) {
+			recentlyUsed.put(script.getFile().getRemote(), extension);
+		}
+
+		String cached = cacheRoot.act(new CachedScriptFile(hash + extension, null, maxBytes, true));
+		if(cached == null) {
+			cached = cacheRoot.act(new CachedScriptFile(hash + extension, fileContents, maxBytes, true));
+		}
+		return new FilePath(cacheRoot, cached);
+	}
+
+	/**
+	 * Unpins a file from {@link #cache(FilePath, Script, String, boolean, long)} once the script has finished with it.
+	 */
+	public static void release(FilePath cachedScript) throws IOException, InterruptedException {
+		cachedScript.act(new Unpin());
+	}
+
+	/**
+	 * Pushes the most recently used scripts to a node's cache.
+	 */
+	public void warm(FilePath cacheRoot, boolean isUnix, long maxBytes) throws IOException, InterruptedException {
+		Map<String, String> recent;
+		synchronized (this) {
+			recent = new LinkedHashMap<String, String>(recentlyUsed);
+		}
+
+		for (Map.Entry<String, String> entry : recent.entrySet()) {
+			String extension = entry.getValue();
+			if(isUnix != ".sh".equals(extension)) {
+				continue;
+			}
+
+			File file = new File(entry.getKey());
+			if(!file.isFile()) {
+				continue;
+			}
+			String fileContents = fileContentsOf(new FilePath(file).readToString(), isUnix);
+			cacheRoot.act(new CachedScriptFile(sha1(fileContents) + extension, fileContents, maxBytes, false));
+		}
+	}
+
+	/**
+	 * Finds the cache directory for the node the given workspace lives on.
+	 *
+	 * @return The cache directory, or null if the node can't be determined.
+	 */
+	public static FilePath cacheRootFor(FilePath workspace) {
+		Jenkins jenkins = Jenkins.getInstance();
+		VirtualChannel channel = workspace.getChannel();
+		if(channel == null || channel == jenkins.getChannel()) {
+			return new FilePath(new File(jenkins.getRootDir(), CACHE_DIRECTORY));
+		}
+
+		for (Computer computer : jenkins.getComputers()) {
+			if(computer.getChannel() == channel) {
+				Node node = computer.getNode();
+				FilePath rootPath = node == null ? null : node.getRootPath();
+				return rootPath == null ? null : rootPath.child(CACHE_DIRECTORY);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * What {@link hudson.tasks.Shell} or {@link hudson.tasks.BatchFile} writes to the script file for the given contents,
+	 * so a script run from the cache behaves the same as one written to the workspace:
+	 * Unix line endings for a shell script, and an explicit exit with the last command's code for a batch file.
+	 */
+	static String fileContentsOf(String contents, boolean isUnix) {
+		return isUnix ? contents.replace("\r\n", "\n") : contents + "\r\nexit %ERRORLEVEL%";
+	}
+
+	static String fileExtensionFor(boolean isUnix) {
+		return isUnix ? ".sh" : ".bat";
+	}
+
+	static String sha1(String contents) {
+		try {
+			MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+			return Util.toHexString(messageDigest.digest(contents.getBytes("UTF-8")));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Runs on the node.
+	 * Returns the name of the cached file if it's present (or was just written), or null if it's missing and no contents were sent.
+	 * Checking for the file, pinning it and evicting others all happen under the pins' lock, so nothing is evicted in between.
+	 */
+	private static class CachedScriptFile implements FilePath.FileCallable<String> {
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final String contents;
+		private final long maxBytes;
+		private final boolean pin;
+
+		private CachedScriptFile(String name, String contents, long maxBytes, boolean pin) {
+			this.name = name;
+			this.contents = contents;
+			this.maxBytes = maxBytes;
+			this.pin = pin;
+		}
+
+		public String invoke(File cacheRoot, VirtualChannel channel) throws IOException, InterruptedException {
+			synchronized (PINNED) {
+				String result = findOrWrite(cacheRoot);
+				if(result != null && pin) {
+					String path = new File(cacheRoot, name).getPath();
+					Integer count = PINNED.get(path);
+					PINNED.put(path, count == null ? 1 : count + 1);
+				}
+				return result;
+			}
+		}
+
+		private String findOrWrite(File cacheRoot) throws IOException {
+			File file = new File(cacheRoot, name);
+			if(file.isFile()) {
+				//Touch it so eviction is least-recently-used rather than least-recently-written.
+				if(!file.setLastModified(System.currentTimeMillis())) {
+					LOGGER.fine("Unable to touch " + file);
+				}
+				return name;
+			}
+
+			if(contents == null) {
+				return null;
+			}
+
+			if(!cacheRoot.isDirectory() && !cacheRoot.mkdirs()) {
+				throw new IOException("Unable to create " + cacheRoot);
+			}
+
+			//Write to a temp file and rename so a concurrent build never sees a partial script.
+			File temp = File.createTempFile(name, ".tmp", cacheRoot);
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temp)); //Same encoding createScriptFile uses
+			try {
+				writer.write(contents);
+			} finally {
+				writer.close();
+			}
+			if(!temp.renameTo(file) && !file.isFile()) {
+				throw new IOException("Unable to move " + temp + " to " + file);
+			}
+			if(temp.exists() && !temp.delete()) {
+				LOGGER.fine("Unable to delete " + temp);
+			}
+
+			evict(cacheRoot, file);
+			return name;
+		}
+
+		private void evict(File cacheRoot, File keep) {
+			File[] files = cacheRoot.listFiles();
+			if(files == null) {
+				return;
+			}
+
+			long total = 0;
+			for (File file : files) {
+				total += file.length();
+			}
+			if(total <= maxBytes) {
+				return;
+			}
+
+			Arrays.sort(files, new Comparator<File>() {
+				public int compare(File file1, File file2) {
+					long modified1 = file1.lastModified();
+					long modified2 = file2.lastModified();
+					return modified1 < modified2 ? -1 : (modified1 == modified2 ? 0 : 1);
+				}
+			});
+
+			for (File file : files) {
+				if(total <= maxBytes) {
+					break;
+				}
+				if(file.equals(keep) || PINNED.containsKey(file.getPath())) {
+					continue;
+				}
+				long length = file.length();
+				if(file.delete()) {
+					total -= length;
+				} else {
+					LOGGER.log(Level.FINE, "Unable to evict " + file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs on the node. Takes back one pin on the file.
+	 */
+	private static class Unpin implements FilePath.FileCallable<Void> {
+		private static final long serialVersionUID = 1L;
+
+		public Void invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+			synchronized (PINNED) {
+				Integer count = PINNED.remove(file.getPath());
+				if(count != null && count > 1) {
+					PINNED.put(file.getPath(), count - 1);
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+import jenkins.model.Jenkins;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pushes the most recently used scripts into a node's {@link ScriptCache} as soon as it comes online,
+ * so the first builds on a fresh node don't have to wait for them.
+ */
+@Extension
+public class ScriptCacheWarmer extends ComputerListener {
+	private static final Logger LOGGER = Logger.getLogger(ScriptCacheWarmer.class.getName());
+
+	@Override
+	public void onOnline(final Computer computer, TaskListener listener) throws IOException, InterruptedException {
+		final ScriptBuilder.DescriptorImpl descriptor = Jenkins.getInstance().getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		final long maxBytes = descriptor.getScriptCacheBytes();
+		final Boolean isUnix = computer.isUnix();
+		Node node = computer.getNode();
+		if(maxBytes <= 0 || isUnix == null || node == null || node.getRootPath() == null) {
+			return;
+		}
+
+		final FilePath cacheRoot = node.getRootPath().child(ScriptCache.CACHE_DIRECTORY);
+		Computer.threadPoolForRemoting.submit(new Runnable() {
+			public void run() {
+				try {
+					descriptor.getScriptCache().warm(cacheRoot, isUnix, maxBytes);
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Unable to warm the script cache on " + computer.getName(), e);
+				} catch (InterruptedException e) {
+					LOGGER.log(Level.WARNING, "Interrupted while warming the script cache on " + computer.getName(), e);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,256 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serves a file with the validators and ranges browsers need to avoid downloading it again.
+ * <p/>
+ * <ul>
+ *     <li>An ETag (a hash of the contents) and Last-Modified header, answering If-None-Match and If-Modified-Since with 304 Not Modified.</li>
+ *     <li>A single byte range (<code>Range: bytes=...</code>), honoring If-Range.</li>
+ *     <li>Gzip for text files, if the client accepts it and the whole file is being sent.
+ *     The gzipped bytes get their own ETag, ending in <code>-gzip</code>, so a cache never mixes them up with the plain ones.</li>
+ * </ul>
+ * Everything else is sent straight from the file's channel, which lets the container avoid copying it through the heap where it can.
+ */
+public class ScriptFileResponse {
+	private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+	private static final int MIN_GZIP_BYTES = 1024;
+	private static final int SNIFF_BYTES = 512;
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	private final String eTag;
+	private final String gzipETag;
+
+	public ScriptFileResponse(File file) throws IOException {
+		this.file = file;
+		this.length = file.length();
+		this.lastModified = file.lastModified();
+		this.eTag = eTagOf(file);
+		this.gzipETag = gzipETagOf(eTag);
+	}
+
+	/**
+	 * A validator made from the file's contents. The editor sends it back with If-Match when it saves,
+	 * and size and modification time can't tell apart two saves of the same length within a second.
+	 */
+	public static String eTagOf(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			input.close();
+		}
+		return "\"" + Util.toHexString(digest.digest()) + "\"";
+	}
+
+	/**
+	 * The validator for the gzipped bytes of the file <code>eTag</code> was made for.
+	 */
+	static String gzipETagOf(String eTag) {
+		return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+	}
+
+	/**
+	 * Compares an If-Match or If-None-Match header against the file's validator. Either encoding's ETag matches,
+	 * since they only differ when the file does.
+	 *
+	 * @param weak Whether <code>W/</code> tags count, as they do for If-None-Match but not If-Match.
+	 * @return The ETag the header matched (<code>eTag</code> for <code>*</code>), or null if none did.
+	 */
+	static String match(String header, String eTag, boolean weak) {
+		String gzipETag = gzipETagOf(eTag);
+		for (String candidate : header.split("\\s*,\\s*")) {
+			if(weak && candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if(candidate.equals("*") || candidate.equals(eTag)) {
+				return eTag;
+			}
+			if(candidate.equals(gzipETag)) {
+				return gzipETag;
+			}
+		}
+		return null;
+	}
+
+	public void serve(StaplerRequest request, StaplerResponse response) throws IOException {
+		response.setHeader("ETag", eTag);
+		response.setDateHeader("Last-Modified", lastModified);
+		response.setHeader("Cache-Control", "private, max-age=0, must-revalidate");
+		response.setHeader("Accept-Ranges", "bytes");
+		response.setHeader("Vary", "Accept-Encoding");
+
+		String matched = notModified(request);
+		if(matched != null) {
+			response.setHeader("ETag", matched);
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		boolean text = isText();
+		response.setContentType(text ? "text/plain;charset=" + Charset.defaultCharset().name() : "application/octet-stream");
+
+		String range = request.getHeader("Range");
+		String ifRange = request.getHeader("If-Range");
+		if(range != null && (ifRange == null || ifRange.equals(eTag))) {
+			long[] bounds = parseRange(range, length);
+			if(bounds == null) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if(bounds.length == 2) {
+				long count = bounds[1] - bounds[0] + 1;
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + length);
+				setContentLength(response, count);
+				transfer(bounds[0], count, response.getOutputStream());
+				return;
+			}
+		}
+
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if(text && length >= MIN_GZIP_BYTES && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.setHeader("ETag", gzipETag);
+			GZIPOutputStream gzip = new GZIPOutputStream(response.getOutputStream());
+			transfer(0, length, gzip);
+			gzip.finish();
+			gzip.flush();
+			return;
+		}
+
+		setContentLength(response, length);
+		transfer(0, length, response.getOutputStream());
+	}
+
+	/**
+	 * @return The ETag to send with 304 Not Modified, or null if the file has to be sent.
+	 */
+	private String notModified(StaplerRequest request) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if(ifNoneMatch != null) {
+			return match(ifNoneMatch, eTag, true); //If-None-Match takes precedence over If-Modified-Since
+		}
+
+		try {
+			long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+			//HTTP dates only have second precision
+			return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000 ? eTag : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return {start, end} (inclusive) for a single satisfiable range, an empty array if the header should be ignored,
+	 * 			or null if the range can't be satisfied.
+	 */
+	static long[] parseRange(String header, long length) {
+		Matcher matcher = RANGE.matcher(header.trim());
+		if(!matcher.matches()) {
+			return new long[0]; //multiple or unknown ranges; send the whole thing
+		}
+		String first = matcher.group(1);
+		String last = matcher.group(2);
+		if(first.isEmpty() && last.isEmpty()) {
+			return new long[0];
+		}
+
+		long start;
+		long end;
+		try {
+			if(first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if(suffix == 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(first);
+				end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+			}
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+
+		if(start >= length || start > end) {
+			return null;
+		}
+		return new long[]{start, end};
+	}
+
+	/**
+	 * Looks for a NUL byte at the start of the file, like most tools that guess whether a file is binary.
+	 */
+	private boolean isText() throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[SNIFF_BYTES];
+			int read = input.read(buffer);
+			for (int i = 0; i < read; i++) {
+				if(buffer[i] == 0) {
+					return false;
+				}
+			}
+			return true;
+		} finally {
+			input.close();
+		}
+	}
+
+	private void transfer(long position, long count, OutputStream output) throws IOException {
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			WritableByteChannel target = Channels.newChannel(output);
+			long sent = 0;
+			while(sent < count) {
+				long transferred = channel.transferTo(position + sent, count - sent, target);
+				if(transferred <= 0) {
+					break; //the file was truncated while we were sending it
+				}
+				sent += transferred;
+			}
+		} finally {
+			input.close();
+		}
+		output.flush();
+	}
+
+	private static void setContentLength(HttpServletResponse response, long length) {
+		if(length <= Integer.MAX_VALUE) {
+			response.setContentLength((int) length);
+		} else {
+			response.setHeader("Content-Length", String.valueOf(length));
+		}
+	}
+}
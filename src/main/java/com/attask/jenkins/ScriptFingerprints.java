@@ -0,0 +1,113 @@
+package com.attask.jenkins;
+
+import hudson.XmlFile;
+import hudson.model.Job;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The input fingerprint and injected properties of the last successful run of each script in a job,
+ * kept in a small file in the job's directory so a later build can tell if a script can be skipped.
+ */
+public class ScriptFingerprints {
+	private static final Logger LOGGER = Logger.getLogger(ScriptFingerprints.class.getName());
+	public static final String FILE_NAME = "scriptFingerprints.xml";
+
+	private static final ConcurrentMap<File, ScriptFingerprints> FINGERPRINTS = new ConcurrentHashMap<File, ScriptFingerprints>();
+
+	private final XmlFile file;
+	private Map<String, Record> records; //guarded by this, loaded on first use
+
+	private ScriptFingerprints(File file) {
+		this.file = new XmlFile(Jenkins.XSTREAM, file);
+	}
+
+	public static ScriptFingerprints of(Job<?, ?> job) {
+		File file = new File(job.getRootDir(), FILE_NAME);
+		ScriptFingerprints fingerprints = FINGERPRINTS.get(file);
+		if(fingerprints == null) {
+			ScriptFingerprints created = new ScriptFingerprints(file);
+			fingerprints = FINGERPRINTS.putIfAbsent(file, created);
+			if(fingerprints == null) {
+				fingerprints = created;
+			}
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * @param key Identifies the script within the job. See {@link ScriptBuilder#getFingerprintKey()}.
+	 * @return The last successful run, or null if there hasn't been one since skipping was enabled.
+	 */
+	public synchronized Record get(String key) {
+		return load().get(key);
+	}
+
+	/**
+	 * Remembers a successful run. Failing to save it is only logged; the next build just won't be able to skip.
+	 */
+	public synchronized void put(String key, Record record) {
+		load().put(key, record);
+		try {
+			file.write(records);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to save " + file, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Record> load() {
+		if(records == null) {
+			records = new HashMap<String, Record>();
+			if(file.exists()) {
+				try {
+					records.putAll((Map<String, Record>) file.read());
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Unable to read " + file + ". Every script will run.", e);
+				} catch (ClassCastException e) {
+					LOGGER.log(Level.WARNING, "Unexpected contents in " + file + ". Every script will run.", e);
+				}
+			}
+		}
+		return records;
+	}
+
+	public static class Record {
+		private final String fingerprint;
+		private final int buildNumber;
+		private final Map<String, String> injected;
+
+		public Record(String fingerprint, int buildNumber, Map<String, String> injected) {
+			this.fingerprint = fingerprint;
+			this.buildNumber = buildNumber;
+			this.injected = injected == null ? Collections.<String, String>emptyMap() : new HashMap<String, String>(injected);
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * The build the script last ran in.
+		 */
+		public int getBuildNumber() {
+			return buildNumber;
+		}
+
+		/**
+		 * The properties the script injected, to be injected again when it's skipped.
+		 */
+		public Map<String, String> getInjected() {
+			return Collections.unmodifiableMap(injected);
+		}
+	}
+}
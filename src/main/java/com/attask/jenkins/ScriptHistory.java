@@ -0,0 +1,372 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import hudson.model.Result;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How long every script took in each build of a job, kept in a single append-only file in the job's directory
+ * so it can be read without loading any builds.
+ * <p/>
+ * Each line is a tab separated record of build number, start time, script, duration in ms, exit code and result.
+ * The file is only ever read from where it was last read, and is rewritten with just the most recent builds once it gets large.
+ */
+public class ScriptHistory {
+	private static final Logger LOGGER = Logger.getLogger(ScriptHistory.class.getName());
+	public static final String FILE_NAME = "scriptHistory.log";
+	public static final int DEFAULT_BUILDS = 20;
+	private static final long MAX_FILE_BYTES = 2 * 1024 * 1024;
+	private static final int BUILDS_KEPT = 500;
+
+	private static final int CACHED_HISTORIES = 256;
+
+	//Only the most recently used jobs' histories stay loaded. Deleted and renamed jobs are dropped by ItemListenerImpl.
+	private static final Map<File, ScriptHistory> HISTORIES = new LinkedHashMap<File, ScriptHistory>(16, 0.75f, true) { //guarded by itself
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<File, ScriptHistory> eldest) {
+			return size() > CACHED_HISTORIES;
+		}
+	};
+
+	private final File file;
+	private final List<Entry> entries = new ArrayList<Entry>(); //guarded by this
+	private long offset = 0; //guarded by this
+
+	private ScriptHistory(File file) {
+		this.file = file;
+	}
+
+	public static ScriptHistory of(Job<?, ?> job) {
+		File file = new File(job.getRootDir(), FILE_NAME);
+		synchronized (HISTORIES) {
+			ScriptHistory history = HISTORIES.get(file);
+			if(history == null) {
+				history = new ScriptHistory(file);
+				HISTORIES.put(file, history);
+			}
+			return history;
+		}
+	}
+
+	private static void forget(File jobDirectory) {
+		synchronized (HISTORIES) {
+			HISTORIES.remove(new File(jobDirectory, FILE_NAME));
+		}
+	}
+
+	/**
+	 * Adds a script run to its job's history. Failing to write it is only logged, it shouldn't fail the build.
+	 */
+	public static void record(AbstractBuild<?, ?> build, String scriptName, long startTime, long duration, int exitCode, Result result) {
+		Entry entry = new Entry(build.getNumber(), startTime, scriptName, duration, exitCode, String.valueOf(result));
+		try {
+			of(build.getParent()).append(entry);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to record the history of " + scriptName + " in " + build.getFullDisplayName(), e);
+		}
+	}
+
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	public synchronized void append(Entry entry) throws IOException {
+		refresh();
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			writer.write(entry.toLine());
+		} finally {
+			writer.close();
+		}
+		entries.add(entry);
+		offset = file.length();
+
+		if(offset > MAX_FILE_BYTES) {
+			compact();
+		}
+	}
+
+	public synchronized List<Entry> getEntries() {
+		try {
+			refresh();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to read " + file, e);
+		}
+		return new ArrayList<Entry>(entries);
+	}
+
+	/**
+	 * Duration percentiles of each script over the given number of most recent builds that ran any scripts.
+	 */
+	public SortedMap<String, Trend> getTrends(int builds) {
+		List<Entry> all = getEntries();
+
+		SortedSet<Integer> buildNumbers = new TreeSet<Integer>(Collections.reverseOrder());
+		for (Entry entry : all) {
+			buildNumbers.add(entry.buildNumber);
+		}
+		int oldest = Integer.MIN_VALUE;
+		int count = 0;
+		for (Integer buildNumber : buildNumbers) {
+			oldest = buildNumber;
+			if(++count >= builds) {
+				break;
+			}
+		}
+
+		Map<String, List<Entry>> byScript = new HashMap<String, List<Entry>>();
+		for (Entry entry : all) {
+			if(entry.buildNumber >= oldest) {
+				List<Entry> scriptEntries = byScript.get(entry.scriptName);
+				if(scriptEntries == null) {
+					scriptEntries = new ArrayList<Entry>();
+					byScript.put(entry.scriptName, scriptEntries);
+				}
+				scriptEntries.add(entry);
+			}
+		}
+
+		SortedMap<String, Trend> result = new TreeMap<String, Trend>();
+		for (Map.Entry<String, List<Entry>> entry : byScript.entrySet()) {
+			result.put(entry.getKey(), new Trend(entry.getKey(), entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads whatever has been appended since the last read. Starts over if the file was rewritten.
+	 */
+	private void refresh() throws IOException {
+		long length = file.length();
+		if(length == offset) {
+			return;
+		}
+		if(length < offset) {
+			entries.clear();
+			offset = 0;
+		}
+
+		FileInputStream input = new FileInputStream(file);
+		try {
+			if(input.skip(offset) < offset) {
+				return;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+			String line;
+			long read = offset;
+			while((line = reader.readLine()) != null) {
+				read += line.getBytes("UTF-8").length + 1;
+				Entry entry = Entry.parse(line);
+				if(entry != null) {
+					entries.add(entry);
+				}
+			}
+			offset = read;
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Rewrites the file with only the most recent builds.
+	 */
+	private void compact() throws IOException {
+		SortedSet<Integer> buildNumbers = new TreeSet<Integer>(Collections.reverseOrder());
+		for (Entry entry : entries) {
+			buildNumbers.add(entry.buildNumber);
+		}
+		if(buildNumbers.size() <= BUILDS_KEPT) {
+			return;
+		}
+		int oldest = new ArrayList<Integer>(buildNumbers).get(BUILDS_KEPT - 1);
+
+		List<Entry> kept = new ArrayList<Entry>();
+		for (Entry entry : entries) {
+			if(entry.buildNumber >= oldest) {
+				kept.add(entry);
+			}
+		}
+
+		File temp = new File(file.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+		try {
+			for (Entry entry : kept) {
+				writer.write(entry.toLine());
+			}
+		} finally {
+			writer.close();
+		}
+		if(!temp.renameTo(file)) {
+			//Windows won't rename over an existing file.
+			if(!file.delete() || !temp.renameTo(file)) {
+				throw new IOException("Unable to replace " + file + " with " + temp);
+			}
+		}
+
+		entries.clear();
+		entries.addAll(kept);
+		offset = file.length();
+	}
+
+	@ExportedBean(defaultVisibility = 2)
+	public static class Entry {
+		private final int buildNumber;
+		private final long startTime;
+		private final String scriptName;
+		private final long duration;
+		private final int exitCode;
+		private final String result;
+
+		public Entry(int buildNumber, long startTime, String scriptName, long duration, int exitCode, String result) {
+			this.buildNumber = buildNumber;
+			this.startTime = startTime;
+			this.scriptName = scriptName;
+			this.duration = duration;
+			this.exitCode = exitCode;
+			this.result = result;
+		}
+
+		static Entry parse(String line) {
+			String[] fields = line.split("\t");
+			if(fields.length != 6) {
+				return null;
+			}
+			try {
+				return new Entry(Integer.parseInt(fields[0]), Long.parseLong(fields[1]), fields[2], Long.parseLong(fields[3]), Integer.parseInt(fields[4]), fields[5]);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+
+		String toLine() {
+			return buildNumber + "\t" + startTime + "\t" + clean(scriptName) + "\t" + duration + "\t" + exitCode + "\t" + clean(result) + "\n";
+		}
+
+		private static String clean(String value) {
+			return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+		}
+
+		@Exported
+		public int getBuildNumber() {
+			return buildNumber;
+		}
+
+		@Exported
+		public long getStartTime() {
+			return startTime;
+		}
+
+		@Exported
+		public String getScriptName() {
+			return scriptName;
+		}
+
+		@Exported
+		public long getDuration() {
+			return duration;
+		}
+
+		@Exported
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		@Exported
+		public String getResult() {
+			return result;
+		}
+	}
+
+	/**
+	 * A single script's durations over a range of builds.
+	 */
+	@ExportedBean(defaultVisibility = 2)
+	public static class Trend {
+		private final String scriptName;
+		private final long[] durations; //sorted
+		private final Entry last;
+
+		Trend(String scriptName, List<Entry> entries) {
+			this.scriptName = scriptName;
+			this.durations = new long[entries.size()];
+			Entry latest = null;
+			for (int i = 0; i < durations.length; i++) {
+				Entry entry = entries.get(i);
+				durations[i] = entry.duration;
+				if(latest == null || entry.buildNumber >= latest.buildNumber) {
+					latest = entry;
+				}
+			}
+			Arrays.sort(durations);
+			this.last = latest;
+		}
+
+		@Exported
+		public String getScriptName() {
+			return scriptName;
+		}
+
+		public String getFileName() {
+			return new File(scriptName).getName();
+		}
+
+		@Exported
+		public int getRuns() {
+			return durations.length;
+		}
+
+		@Exported
+		public long getP50() {
+			return percentile(0.5);
+		}
+
+		@Exported
+		public long getP95() {
+			return percentile(0.95);
+		}
+
+		@Exported
+		public Entry getLast() {
+			return last;
+		}
+
+		/**
+		 * Nearest rank.
+		 */
+		long percentile(double quantile) {
+			if(durations.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(quantile * durations.length);
+			return durations[Math.max(0, rank - 1)];
+		}
+	}
+
+	@Extension
+	public static class ItemListenerImpl extends ItemListener {
+		@Override
+		public void onDeleted(Item item) {
+			if(item instanceof Job) {
+				forget(item.getRootDir());
+			}
+		}
+
+		@Override
+		public void onRenamed(Item item, String oldName, String newName) {
+			if(item instanceof Job) {
+				forget(new File(item.getRootDir().getParentFile(), oldName));
+			}
+		}
+	}
+}
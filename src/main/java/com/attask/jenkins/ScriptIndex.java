@@ -0,0 +1,413 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of the runnable scripts in userContent, keyed by absolute path.
+ * <p/>
+ * The index is built once by {@link #rebuild()} and is then kept current by {@link #refresh()},
+ * which stats every known directory and only re-lists the ones whose modification time changed.
+ * Changes that don't touch a directory's modification time (e.g. a chmod on an existing file) are picked up
+ * by the next {@link #rebuild()}, or immediately by {@link #find(String)} when that exact path is looked up.
+ */
+public class ScriptIndex {
+	private static final Logger LOGGER = Logger.getLogger(ScriptIndex.class.getName());
+
+	private final File root;
+	private volatile FileTypeMatcher fileTypes;
+	private volatile boolean built;
+	private volatile boolean rebuildRequested;
+
+	private final ConcurrentMap<String, Script> scripts = new ConcurrentHashMap<String, Script>();
+	private final Map<File, Directory> directories = new HashMap<File, Directory>(); //guarded by this
+	private final AtomicInteger modifications = new AtomicInteger();
+	private volatile SortedPaths sortedPaths;
+
+	public ScriptIndex(File root, FileTypeMatcher fileTypes) {
+		this.root = root.getAbsoluteFile();
+		this.fileTypes = fileTypes;
+	}
+
+	/**
+	 * Looks up a script by absolute path, or by path relative to userContent.
+	 * Falls back to checking the file itself if the index doesn't know about it yet, so a script that was just added
+	 * doesn't have to wait for the next refresh. Other spellings of an indexed path (<code>../</code>, symlinks) are
+	 * canonicalized first, so they find the same entry instead of adding another.
+	 *
+	 * @return The script, or null if the path isn't a runnable script in userContent.
+	 */
+	public Script find(String path) {
+		if(path == null) {
+			return null;
+		}
+		if(!new File(path).isAbsolute()) {
+			path = new File(root, path).getPath();
+		}
+
+		Script script = scripts.get(path);
+		if(script != null) {
+			File file = new File(path);
+			if(file.isFile() && fileTypes.matches(file)) {
+				return script;
+			}
+			scripts.remove(path);
+			modifications.incrementAndGet();
+			return null;
+		}
+
+		String key = indexKeyOf(path);
+		if(key == null) {
+			return null;
+		}
+		if(!key.equals(path)) {
+			return find(key);
+		}
+		File file = new File(key);
+		if(file.isFile() && fileTypes.matches(file)) {
+			script = new Script(new FilePath(file));
+			Script existing = scripts.putIfAbsent(key, script);
+			modifications.incrementAndGet();
+			return existing == null ? script : existing;
+		}
+		return null;
+	}
+
+	/**
+	 * The path a file is indexed under: userContent's path plus the file's canonical path relative to it.
+	 *
+	 * @return null if the file is outside of userContent or in a hidden directory, neither of which {@link #rebuild()} indexes.
+	 */
+	private String indexKeyOf(String path) {
+		try {
+			String rootPath = root.getCanonicalPath() + File.separator;
+			String canonicalPath = new File(path).getCanonicalPath();
+			if(!canonicalPath.startsWith(rootPath)) {
+				return null;
+			}
+			String relativePath = canonicalPath.substring(rootPath.length());
+			for (String name : relativePath.split(Pattern.quote(File.separator))) {
+				if(name.startsWith(".")) {
+					return null;
+				}
+			}
+			return new File(root, relativePath).getAbsolutePath();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return An unmodifiable snapshot of the index. Builds the index first if it hasn't been built yet.
+	 */
+	public Map<String, Script> getScripts() {
+		if(!built) {
+			rebuild();
+		}
+		return Collections.unmodifiableMap(new HashMap<String, Script>(scripts));
+	}
+
+	/**
+	 * Finds scripts whose path relative to userContent contains the query, ignoring case.
+	 * Paths that start with the query, or whose file name does, come first. Otherwise they're in alphabetical order.
+	 *
+	 * @param limit The most matches to return.
+	 */
+	public SearchResult search(String query, int limit) {
+		SortedPaths sorted = getSortedPaths();
+		String needle = query == null ? "" : query.trim().replace('\\', '/').toLowerCase();
+
+		List<String> prefixMatches = new ArrayList<String>();
+		List<String> otherMatches = new ArrayList<String>();
+		int total = 0;
+		for (int i = 0; i < sorted.paths.length; i++) {
+			String lowerCase = sorted.lowerCasePaths[i];
+			int index = lowerCase.indexOf(needle);
+			if(index < 0) {
+				continue;
+			}
+			total++;
+			if(index == 0 || index == lowerCase.lastIndexOf('/') + 1) {
+				if(prefixMatches.size() < limit) {
+					prefixMatches.add(sorted.paths[i]);
+				}
+			} else if(otherMatches.size() < limit) {
+				otherMatches.add(sorted.paths[i]);
+			}
+		}
+
+		List<String> matches = prefixMatches;
+		for (int i = 0; i < otherMatches.size() && matches.size() < limit; i++) {
+			matches.add(otherMatches.get(i));
+		}
+		return new SearchResult(matches, total);
+	}
+
+	/**
+	 * The indexed paths relative to userContent, sorted. Re-sorted only after the index changes.
+	 */
+	private SortedPaths getSortedPaths() {
+		if(!built) {
+			rebuild();
+		}
+		int version = modifications.get();
+		SortedPaths result = sortedPaths;
+		if(result == null || result.version != version) {
+			String rootPath = root.getPath() + File.separator;
+			List<String> paths = new ArrayList<String>(scripts.size());
+			for (String path : scripts.keySet()) {
+				paths.add(path.startsWith(rootPath) ? path.substring(rootPath.length()).replace('\\', '/') : path);
+			}
+			Collections.sort(paths, String.CASE_INSENSITIVE_ORDER);
+			sortedPaths = result = new SortedPaths(paths, version);
+		}
+		return result;
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	/**
+	 * Changes the file types being indexed. The index is rebuilt for them by {@link ScriptIndexWatcher}'s next run,
+	 * rather than on the thread saving the configuration. Until then {@link #find(String)} still checks new types itself.
+	 */
+	public void setFileTypes(FileTypeMatcher fileTypes) {
+		this.fileTypes = fileTypes;
+		rebuildRequested = true;
+	}
+
+	/**
+	 * Whether something has changed that needs the whole tree walked again.
+	 */
+	public boolean isRebuildRequested() {
+		return rebuildRequested;
+	}
+
+	/**
+	 * Walks the whole tree and reconciles the index against it.
+	 */
+	public synchronized void rebuild() {
+		long startTime = System.currentTimeMillis();
+		rebuildRequested = false;
+		Map<String, Script> found = new HashMap<String, Script>();
+		directories.clear();
+		if(root.isDirectory()) {
+			scan(root, found);
+		}
+
+		scripts.keySet().retainAll(found.keySet());
+		for (Map.Entry<String, Script> entry : found.entrySet()) {
+			scripts.putIfAbsent(entry.getKey(), entry.getValue());
+		}
+		modifications.incrementAndGet();
+		built = true;
+		LOGGER.fine("Indexed " + scripts.size() + " scripts in " + (System.currentTimeMillis() - startTime) + "ms");
+	}
+
+	/**
+	 * Re-lists only the directories whose modification time has changed since they were last seen.
+	 */
+	public synchronized void refresh() {
+		if(!built) {
+			rebuild();
+			return;
+		}
+
+		Set<File> seen = new HashSet<File>();
+		if(root.isDirectory()) {
+			refresh(root, seen);
+		}
+
+		//Anything we didn't reach has been deleted (or its parent has).
+		Iterator<Map.Entry<File, Directory>> iterator = directories.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<File, Directory> entry = iterator.next();
+			if(!seen.contains(entry.getKey())) {
+				scripts.keySet().removeAll(entry.getValue().scripts);
+				modifications.incrementAndGet();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops a single path from the index, or re-checks it if it still exists.
+	 */
+	public void invalidate(String path) {
+		scripts.remove(path);
+		modifications.incrementAndGet();
+		find(path);
+	}
+
+	private void refresh(File directory, Set<File> seen) {
+		seen.add(directory);
+		Directory known = directories.get(directory);
+		if(known == null || known.lastModified != directory.lastModified()) {
+			if(known != null) {
+				scripts.keySet().removeAll(known.scripts);
+			}
+			Map<String, Script> found = new HashMap<String, Script>();
+			known = list(directory, found);
+			scripts.putAll(found);
+			modifications.incrementAndGet();
+		}
+
+		for (File subdirectory : known.subdirectories) {
+			if(subdirectory.isDirectory()) {
+				refresh(subdirectory, seen);
+			}
+		}
+	}
+
+	private void scan(File directory, Map<String, Script> found) {
+		Directory listed = list(directory, found);
+		for (File subdirectory : listed.subdirectories) {
+			scan(subdirectory, found);
+		}
+	}
+
+	private Directory list(File directory, Map<String, Script> found) {
+		Directory result = new Directory(directory.lastModified());
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return !file.getName().startsWith(".");
+			}
+		});
+
+		if(files == null) {
+			LOGGER.log(Level.FINE, "Unable to list " + directory);
+		} else {
+			for (File file : files) {
+				if(file.isDirectory()) {
+					result.subdirectories.add(file.getAbsoluteFile());
+				} else if(fileTypes.matches(file)) {
+					String path = file.getAbsolutePath();
+					found.put(path, new Script(new FilePath(file.getAbsoluteFile())));
+					result.scripts.add(path);
+				}
+			}
+		}
+
+		directories.put(directory, result);
+		return result;
+	}
+
+	/**
+	 * Resolves a path to a file in userContent. Relative paths are relative to userContent.
+	 *
+	 * @return The canonical file, or null if the path is outside of userContent.
+	 */
+	public File resolve(String path) {
+		if(path == null || path.isEmpty()) {
+			return null;
+		}
+		File file = new File(path);
+		if(!file.isAbsolute()) {
+			file = new File(root, path);
+		}
+		try {
+			File canonical = file.getCanonicalFile();
+			return isUnderRoot(canonical) ? canonical : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The form script names are saved in: the path relative to userContent, with forward slashes.
+	 * Paths outside of userContent are left as they are.
+	 */
+	public static String relativize(File root, String path) {
+		if(path == null) {
+			return null;
+		}
+		path = path.trim();
+		File file = new File(path);
+		if(!file.isAbsolute()) {
+			return path;
+		}
+		String rootPath = root.getAbsolutePath() + File.separator;
+		String absolutePath = file.getAbsolutePath();
+		if(!absolutePath.startsWith(rootPath)) {
+			try {
+				rootPath = root.getCanonicalPath() + File.separator;
+				absolutePath = file.getCanonicalPath();
+			} catch (IOException e) {
+				return path;
+			}
+			if(!absolutePath.startsWith(rootPath)) {
+				return path;
+			}
+		}
+		return absolutePath.substring(rootPath.length()).replace('\\', '/');
+	}
+
+	private boolean isUnderRoot(File file) {
+		try {
+			String rootPath = root.getCanonicalPath() + File.separator;
+			return file.getCanonicalPath().startsWith(rootPath);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static class SortedPaths {
+		private final String[] paths;
+		private final String[] lowerCasePaths;
+		private final int version;
+
+		private SortedPaths(List<String> paths, int version) {
+			this.version = version;
+			this.paths = paths.toArray(new String[paths.size()]);
+			this.lowerCasePaths = new String[this.paths.length];
+			for (int i = 0; i < this.paths.length; i++) {
+				lowerCasePaths[i] = this.paths[i].toLowerCase();
+			}
+		}
+	}
+
+	/**
+	 * The first matches of a {@link #search(String, int)}, and how many there were in all.
+	 */
+	public static class SearchResult {
+		private final List<String> paths;
+		private final int total;
+
+		private SearchResult(List<String> paths, int total) {
+			this.paths = Collections.unmodifiableList(paths);
+			this.total = total;
+		}
+
+		/**
+		 * Relative to userContent, with forward slashes.
+		 */
+		public List<String> getPaths() {
+			return paths;
+		}
+
+		public int getTotal() {
+			return total;
+		}
+	}
+
+	private static class Directory {
+		private final long lastModified;
+		private final List<File> subdirectories = new ArrayList<File>();
+		private final Set<String> scripts = new HashSet<String>();
+
+		private Directory(long lastModified) {
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Computer;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link ScriptIndex} current by polling.
+ * Every minute the index is refreshed (every known directory is stat'ed and only changed ones are re-listed),
+ * and every hour the whole tree is reconciled in case a change slipped past the directory timestamps.
+ * The tree is also reconciled on the next run after the indexed file types change.
+ * <p/>
+ * Java 6 has no file system notifications, so each refresh costs a stat per directory in userContent; the long period keeps
+ * that small. The price is that a script added outside of Jenkins can take up to a minute to show up in searches.
+ * Running a script doesn't wait on this: {@link ScriptIndex#find(String)} checks a path it doesn't know about itself,
+ * and the script editor updates the index when it saves.
+ */
+@Extension
+public class ScriptIndexWatcher extends PeriodicWork {
+	private static final long REFRESH_PERIOD = TimeUnit.MINUTES.toMillis(1);
+	private static final long RECONCILE_PERIOD = TimeUnit.HOURS.toMillis(1);
+
+	private long lastReconcile = System.currentTimeMillis();
+
+	@Override
+	public long getRecurrencePeriod() {
+		return REFRESH_PERIOD;
+	}
+
+	@Override
+	protected void doRun() throws Exception {
+		ScriptIndex index = findIndex();
+		if(index == null) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		if(index.isRebuildRequested() || now - lastReconcile >= RECONCILE_PERIOD) {
+			lastReconcile = now;
+			index.rebuild();
+		} else {
+			index.refresh();
+		}
+	}
+
+	/**
+	 * Builds the index in the background at startup so the first build doesn't pay for the walk.
+	 */
+	@Initializer(after = InitMilestone.PLUGINS_STARTED)
+	public static void buildIndex() {
+		Computer.threadPoolForRemoting.submit(new Runnable() {
+			public void run() {
+				ScriptIndex index = findIndex();
+				if(index != null && !index.isBuilt()) {
+					index.rebuild();
+				}
+			}
+		});
+	}
+
+	private static ScriptIndex findIndex() {
+		Jenkins jenkins = Jenkins.getInstance();
+		if(jenkins == null) {
+			return null;
+		}
+		ScriptBuilder.DescriptorImpl descriptor = jenkins.getDescriptorByType(ScriptBuilder.DescriptorImpl.class);
+		return descriptor == null ? null : descriptor.getScriptIndex();
+	}
+}
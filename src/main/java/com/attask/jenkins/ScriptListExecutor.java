@@ -0,0 +1,298 @@
+package com.attask.jenkins;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs a list of scripts, either one after another or in parallel.
+ * <p/>
+ * In parallel, scripts run on a bounded pool once everything they depend on ({@link ScriptBuilder#getDependsOn()}) has finished.
+ * Of the scripts that are ready, the ones that usually take longest (see {@link ScriptHistory}) start first.
+ * Each script's output is prefixed with its name so interleaved lines stay readable.
+ * If a script aborts (it failed and {@link ScriptBuilder#getAbortOnFailure()} is set) the scripts still running are cancelled
+ * and the ones that haven't started are skipped, the same as when running sequentially.
+ * Unless it's not failing fast, in which case every script runs regardless.
+ */
+public class ScriptListExecutor {
+	public static final int DEFAULT_MAX_PARALLEL = 4;
+
+	private final List<ScriptBuilder> scripts;
+	private final boolean parallel;
+	private final int maxParallel;
+	private final boolean failFast;
+	private final boolean batched;
+
+	public ScriptListExecutor(List<ScriptBuilder> scripts, boolean parallel, int maxParallel) {
+		this(scripts, parallel, maxParallel, true);
+	}
+
+	public ScriptListExecutor(List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean failFast) {
+		this(scripts, parallel, maxParallel, failFast, false);
+	}
+
+	/**
+	 * @param failFast If false, scripts running in parallel aren't cancelled when one of them aborts, and the remaining ones still run.
+	 * @param batched If true, scripts run one after another share processes where they can. See {@link ScriptBatch}. Ignored when running in parallel.
+	 */
+	public ScriptListExecutor(List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean failFast, boolean batched) {
+		this.scripts = scripts == null ? Collections.<ScriptBuilder>emptyList() : scripts;
+		this.parallel = parallel;
+		this.maxParallel = maxParallel > 0 ? maxParallel : DEFAULT_MAX_PARALLEL;
+		this.failFast = failFast;
+		this.batched = batched;
+	}
+
+	/**
+	 * @return {@link ScriptBuilder#CONTINUE} if every script that ran returned {@link ScriptBuilder#CONTINUE}, otherwise {@link ScriptBuilder#ABORT}.
+	 */
+	public boolean execute(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		if(!parallel || scripts.size() < 2) {
+			return executeSequentially(build, launcher, listener);
+		}
+		return executeInParallel(build, launcher, listener);
+	}
+
+	private boolean executeSequentially(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		if(batched && launcher.isUnix()) {
+			return executeBatched(build, launcher, listener);
+		}
+		boolean result = ScriptBuilder.CONTINUE;
+		for (ScriptBuilder script : scripts) {
+			result = result && script.perform(build, launcher, listener);
+		}
+		return result;
+	}
+
+	/**
+	 * Runs each stretch of consecutive batchable scripts ({@link ScriptBuilder#isBatchable()}) in one process,
+	 * ending a stretch after any script whose injected properties the next ones need. Everything else runs on its own.
+	 */
+	private boolean executeBatched(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		int next = 0;
+		while(next < scripts.size()) {
+			List<ScriptBuilder> batch = new ArrayList<ScriptBuilder>();
+			while(next < scripts.size() && scripts.get(next).isBatchable()) {
+				ScriptBuilder script = scripts.get(next++);
+				batch.add(script);
+				if(script.endsBatch()) {
+					break;
+				}
+			}
+
+			boolean result;
+			if(batch.size() > 1) {
+				result = new ScriptBatch(batch).execute(build, launcher, listener);
+			} else if(batch.size() == 1) {
+				result = batch.get(0).perform(build, launcher, listener);
+			} else {
+				result = scripts.get(next++).perform(build, launcher, listener);
+			}
+			if(result == ScriptBuilder.ABORT) {
+				return ScriptBuilder.ABORT;
+			}
+		}
+		return ScriptBuilder.CONTINUE;
+	}
+
+	private boolean executeInParallel(final AbstractBuild<?, ?> build, final Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+		final PrintStream logger = listener.getLogger();
+		final int size = scripts.size();
+
+		List<List<Integer>> dependents = new ArrayList<List<Integer>>(size);
+		int[] remainingDependencies = new int[size];
+		if(!buildGraph(dependents, remainingDependencies, logger)) {
+			return ScriptBuilder.ABORT;
+		}
+
+		final String[] labels = labels();
+		final long[] expectedDurations = expectedDurations(build);
+		PriorityQueue<Integer> ready = new PriorityQueue<Integer>(size, new Comparator<Integer>() {
+			public int compare(Integer script1, Integer script2) {
+				long duration1 = expectedDurations[script1];
+				long duration2 = expectedDurations[script2];
+				if(duration1 != duration2) {
+					return duration1 > duration2 ? -1 : 1; //longest first
+				}
+				return script1.compareTo(script2);
+			}
+		});
+		for (int i = 0; i < size; i++) {
+			if(remainingDependencies[i] == 0) {
+				ready.add(i);
+			}
+		}
+
+		int poolSize = Math.min(maxParallel, size);
+		logger.println("Running " + size + " scripts in parallel, at most " + poolSize + " at a time");
+		ExecutorService pool = Executors.newFixedThreadPool(poolSize, threadFactory("Scripts for " + build.getFullDisplayName()));
+		CompletionService<Integer> completionService = new ExecutorCompletionService<Integer>(pool);
+		Map<Future<Integer>, Integer> running = new HashMap<Future<Integer>, Integer>();
+		Set<Integer> aborted = new HashSet<Integer>();
+		IOException failure = null;
+		int finished = 0;
+
+		try {
+			while(!running.isEmpty() || (!stopping(aborted, failure) && !ready.isEmpty())) {
+				while(!stopping(aborted, failure) && !ready.isEmpty() && running.size() < poolSize) {
+					final int index = ready.poll();
+					final BuildListener scriptListener = new PrefixedBuildListener(logger, labels[index], build.getCharset());
+					Future<Integer> future = completionService.submit(new Callable<Integer>() {
+						public Integer call() throws Exception {
+							try {
+								boolean result = scripts.get(index).perform(build, launcher, scriptListener);
+								return result == ScriptBuilder.CONTINUE ? -1 : index;
+							} finally {
+								scriptListener.getLogger().close();
+							}
+						}
+					});
+					running.put(future, index);
+				}
+
+				Future<Integer> done = completionService.take();
+				int index = running.remove(done);
+				finished++;
+				try {
+					if(done.get() >= 0) {
+						aborted.add(index);
+					}
+				} catch (CancellationException e) {
+					logger.println("Cancelled " + labels[index]);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof InterruptedException) {
+						logger.println("Cancelled " + labels[index]);
+					} else {
+						failure = cause instanceof IOException ? (IOException) cause : new IOException(labels[index] + " failed", cause);
+					}
+				}
+
+				if(stopping(aborted, failure)) {
+					for (Future<Integer> future : running.keySet()) {
+						future.cancel(true);
+					}
+				} else {
+					for (Integer dependent : dependents.get(index)) {
+						if(--remainingDependencies[dependent] == 0) {
+							ready.add(dependent);
+						}
+					}
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if(failure != null) {
+			throw failure;
+		}
+		if(finished < size) {
+			logger.println("Skipped " + (size - finished) + " scripts that hadn't started.");
+		}
+		return aborted.isEmpty() ? ScriptBuilder.CONTINUE : ScriptBuilder.ABORT;
+	}
+
+	private boolean stopping(Set<Integer> aborted, IOException failure) {
+		return failure != null || (failFast && !aborted.isEmpty());
+	}
+
+	/**
+	 * Resolves each script's dependencies to indexes in the list and checks the graph for cycles.
+	 *
+	 * @return false if there's a cycle
+	 */
+	private boolean buildGraph(List<List<Integer>> dependents, int[] remainingDependencies, PrintStream logger) {
+		int size = scripts.size();
+		for (int i = 0; i < size; i++) {
+			dependents.add(new ArrayList<Integer>());
+		}
+
+		for (int i = 0; i < size; i++) {
+			for (String dependency : scripts.get(i).getDependsOnList()) {
+				boolean found = false;
+				for (int j = 0; j < size; j++) {
+					if(j != i && scripts.get(j).isNamed(dependency)) {
+						dependents.get(j).add(i);
+						remainingDependencies[i]++;
+						found = true;
+					}
+				}
+				if(!found) {
+					logger.println("WARNING: " + scripts.get(i).getScriptName() + " depends on '" + dependency + "' which isn't in this list. Ignoring.");
+				}
+			}
+		}
+
+		//Kahn's algorithm, just to make sure everything can eventually run.
+		int[] remaining = remainingDependencies.clone();
+		Deque<Integer> queue = new ArrayDeque<Integer>();
+		for (int i = 0; i < size; i++) {
+			if(remaining[i] == 0) {
+				queue.add(i);
+			}
+		}
+		int visited = 0;
+		while(!queue.isEmpty()) {
+			int index = queue.poll();
+			visited++;
+			for (Integer dependent : dependents.get(index)) {
+				if(--remaining[dependent] == 0) {
+					queue.add(dependent);
+				}
+			}
+		}
+
+		if(visited < size) {
+			logger.println("The scripts' dependencies contain a cycle. Aborting.");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The median duration of each script over the job's recent builds, falling back to the previous build's timings.
+	 */
+	private long[] expectedDurations(AbstractBuild<?, ?> build) {
+		long[] result = new long[scripts.size()];
+		Map<String, ScriptHistory.Trend> trends = ScriptHistory.of(build.getParent()).getTrends(ScriptHistory.DEFAULT_BUILDS);
+		AbstractBuild<?, ?> previousBuild = build.getPreviousBuild();
+		ScriptTimingsAction timings = previousBuild == null ? null : previousBuild.getAction(ScriptTimingsAction.class);
+		for (int i = 0; i < result.length; i++) {
+			String scriptName = scripts.get(i).getScriptName();
+			ScriptHistory.Trend trend = trends.get(scriptName);
+			Long duration = trend != null ? Long.valueOf(trend.getP50()) : timings == null ? null : timings.getDuration(scriptName);
+			result[i] = duration == null ? Long.MAX_VALUE : duration; //Assume scripts we know nothing about are slow.
+		}
+		return result;
+	}
+
+	static ThreadFactory threadFactory(final String name) {
+		return new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " #" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private String[] labels() {
+		String[] result = new String[scripts.size()];
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (int i = 0; i < result.length; i++) {
+			String name = scripts.get(i).getScriptFileName();
+			Integer count = counts.get(name);
+			counts.put(name, count == null ? 1 : count + 1);
+			result[i] = count == null ? name : name + "#" + (count + 1);
+		}
+		return result;
+	}
+}
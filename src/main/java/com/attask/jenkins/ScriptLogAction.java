@@ -0,0 +1,223 @@
+package com.attask.jenkins;
+
+import hudson.console.ConsoleNote;
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.BuildListener;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Index of where each script's output is in the build's console log, by byte offset.
+ * A single script's output can then be read with a seek instead of loading the whole log.
+ * Post-Matrix scripts run in the background are indexed in their own log instead (see {@link BackgroundScriptLogAction}).
+ * <p/>
+ * Scripts that ran in parallel share a range of the log with their siblings. Their lines are prefixed with a label
+ * (see {@link PrefixedOutputStream}), which is used to pick their lines back out of the range.
+ */
+@ExportedBean
+public class ScriptLogAction implements Action {
+	private final List<Segment> segments = new ArrayList<Segment>();
+
+	/**
+	 * Marks the start of a script's output.
+	 *
+	 * @return The segment to pass to {@link #end(AbstractBuild, BuildListener, Segment)}, or null if the build's log can't be indexed.
+	 */
+	public static Segment start(AbstractBuild<?, ?> build, BuildListener listener, String scriptName) {
+		boolean background = !build.isBuilding();
+		if(background && !BackgroundScriptLogAction.isRunning(build)) {
+			return null;
+		}
+		String label = listener instanceof PrefixedBuildListener ? ((PrefixedBuildListener) listener).getLabel() : null;
+		Segment segment = new Segment(scriptName, label, background);
+		segment.start = segment.end = offset(segment.logFileIn(build), listener);
+		return segment;
+	}
+
+	/**
+	 * Marks the end of a script's output and adds it to the build's index.
+	 */
+	public static void end(AbstractBuild<?, ?> build, BuildListener listener, Segment segment) {
+		if(segment == null || (!segment.background && !build.isBuilding())) {
+			return;
+		}
+		segment.end = offset(segment.logFileIn(build), listener);
+
+		synchronized (ScriptLogAction.class) {
+			ScriptLogAction action = build.getAction(ScriptLogAction.class);
+			if(action == null) {
+				action = new ScriptLogAction();
+				build.addAction(action);
+			}
+			action.add(segment);
+		}
+	}
+
+	private static long offset(File logFile, BuildListener listener) {
+		listener.getLogger().flush();
+		return logFile.length();
+	}
+
+	private synchronized void add(Segment segment) {
+		segments.add(segment);
+	}
+
+	@Exported
+	public synchronized List<Segment> getSegments() {
+		return Collections.unmodifiableList(new ArrayList<Segment>(segments));
+	}
+
+	/**
+	 * Serves a single script's output as plain text.
+	 */
+	public void doSegment(StaplerRequest request, StaplerResponse response, @QueryParameter int index) throws IOException {
+		AbstractBuild<?, ?> build = request.findAncestorObject(AbstractBuild.class);
+		List<Segment> segments = getSegments();
+		File logFile = build == null || index < 0 || index >= segments.size() ? null : segments.get(index).logFileIn(build);
+		if(logFile == null || !logFile.isFile()) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		response.setContentType("text/plain;charset=" + build.getCharset().name());
+		segments.get(index).writeTo(logFile, build.getCharset().name(), response.getWriter());
+	}
+
+	public String getIconFileName() {
+		return "notepad.png";
+	}
+
+	public String getDisplayName() {
+		return "Script Logs";
+	}
+
+	public String getUrlName() {
+		return "scriptLogs";
+	}
+
+	@ExportedBean(defaultVisibility = 2)
+	public static class Segment {
+		private final String scriptName;
+		private final String label;
+		private final boolean background;
+		private long start;
+		private long end;
+
+		private Segment(String scriptName, String label, boolean background) {
+			this.scriptName = scriptName;
+			this.label = label;
+			this.background = background;
+		}
+
+		File logFileIn(AbstractBuild<?, ?> build) {
+			return background ? BackgroundScriptLogAction.logFileOf(build) : build.getLogFile();
+		}
+
+		@Exported
+		public String getScriptName() {
+			return scriptName;
+		}
+
+		/**
+		 * The prefix on each of this script's lines if it ran in parallel, otherwise null.
+		 */
+		@Exported
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * Whether the output is in the background Post-Matrix script log rather than the console.
+		 */
+		@Exported
+		public boolean isBackground() {
+			return background;
+		}
+
+		@Exported
+		public long getStart() {
+			return start;
+		}
+
+		@Exported
+		public long getEnd() {
+			return end;
+		}
+
+		public String getFileName() {
+			return new File(scriptName).getName();
+		}
+
+		void writeTo(File logFile, String charset, Writer writer) throws IOException {
+			FileInputStream input = new FileInputStream(logFile);
+			try {
+				if(input.skip(start) < start) {
+					return;
+				}
+
+				String prefix = label == null ? null : "[" + label + "] ";
+				BufferedReader reader = new BufferedReader(new InputStreamReader(new RangeInputStream(input, end - start), charset));
+				String line;
+				while((line = reader.readLine()) != null) {
+					if(prefix != null) {
+						if(!line.startsWith(prefix)) {
+							continue;
+						}
+						line = line.substring(prefix.length());
+					}
+					writer.write(ConsoleNote.removeNotes(line));
+					writer.write('\n');
+				}
+			} finally {
+				input.close();
+			}
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Stops after the given number of bytes.
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+		private long remaining;
+
+		private RangeInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int result = super.read();
+			if(result >= 0) {
+				remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(remaining <= 0) {
+				return -1;
+			}
+			int result = super.read(b, off, (int) Math.min(len, remaining));
+			if(result > 0) {
+				remaining -= result;
+			}
+			return result;
+		}
+	}
+}
@@ -1,12 +1,29 @@
 package com.attask.jenkins;
 
+import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.matrix.MatrixAggregator;
 import hudson.matrix.MatrixBuild;
 import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.StreamBuildListener;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.slaves.WorkspaceList;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * User: Joel Johnson
@@ -14,18 +31,37 @@ import java.util.List;
  * Time: 8:48 AM
  */
 public class ScriptMatrixAggregator extends MatrixAggregator {
+	private static final Logger LOGGER = Logger.getLogger(ScriptMatrixAggregator.class.getName());
+	private static final ExecutorService BACKGROUND = Executors.newCachedThreadPool(ScriptListExecutor.threadFactory("Background Post-Matrix scripts"));
+	//Background scripts waiting for their build to complete. See RunListenerImpl.
+	private static final Map<MatrixBuild, Runnable> PENDING = Collections.synchronizedMap(new HashMap<MatrixBuild, Runnable>());
+
 	private final boolean runBefore;
 	private final boolean runAfter;
 	private final List<ScriptBuilder> scripts;
+	private final boolean parallel;
+	private final int maxParallel;
+	private final boolean runAfterInBackground;
 	private static final boolean CONTINUE_ON_FAILURE = false;
 	private static final boolean FAIL_ON_FIRST_FAILURE = true;
 
 	public ScriptMatrixAggregator(MatrixBuild build, Launcher launcher, BuildListener listener, boolean runBefore, boolean runAfter, List<ScriptBuilder> scripts) {
+		this(build, launcher, listener, runBefore, runAfter, scripts, false, 0, false);
+	}
+
+	/**
+	 * @param parallel Run the scripts at the same time. {@link #FAIL_ON_FIRST_FAILURE} cancels the ones still running; {@link #CONTINUE_ON_FAILURE} waits for all of them.
+	 * @param runAfterInBackground Run the post-matrix scripts off the executor thread so the executor is freed as soon as the configurations finish.
+	 */
+	public ScriptMatrixAggregator(MatrixBuild build, Launcher launcher, BuildListener listener, boolean runBefore, boolean runAfter, List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean runAfterInBackground) {
 		super(build, launcher, listener);
 
 		this.runBefore = runBefore;
 		this.runAfter = runAfter;
 		this.scripts = scripts;
+		this.parallel = parallel;
+		this.maxParallel = maxParallel;
+		this.runAfterInBackground = runAfterInBackground;
 	}
 
 	@Override
@@ -35,7 +71,7 @@ public class ScriptMatrixAggregator extends MatrixAggregator {
 		}
 
 		listener.getLogger().println("Executing Pre-Matrix scripts");
-		return execute(FAIL_ON_FIRST_FAILURE);
+		return execute(FAIL_ON_FIRST_FAILURE, listener);
 	}
 
 	@Override
@@ -44,18 +80,99 @@ public class ScriptMatrixAggregator extends MatrixAggregator {
 			return true;
 		}
 
+		if(runAfterInBackground) {
+			executeInBackground();
+			return true;
+		}
+
 		listener.getLogger().println("Executing Post-Matrix scripts");
-		return execute(CONTINUE_ON_FAILURE);
+		return execute(CONTINUE_ON_FAILURE, listener);
+	}
+
+	private boolean execute(boolean failOnFirstFailure, BuildListener listener) throws IOException, InterruptedException {
+		boolean result = new ScriptListExecutor(scripts, parallel, maxParallel, failOnFirstFailure).execute(build, launcher, listener);
+		return result || !failOnFirstFailure;
 	}
 
-	private boolean execute(boolean failOnFirstFailure) throws IOException, InterruptedException {
-		boolean result = true;
-		for (ScriptBuilder script : scripts) {
-			result = result && script.perform(build, launcher, listener);
-			if(!result && failOnFirstFailure) {
-				return false;
+	/**
+	 * The scripts start once the build has completed, so they can't change its result, which is final by then.
+	 * The build's console is closed by then, so the output goes to its own log file in the build directory,
+	 * served by {@link BackgroundScriptLogAction}.
+	 * <p/>
+	 * The build has given up its workspace by then, so the scripts lease it again while they run. A build that starts
+	 * in the meantime gets a workspace of its own (<code>workspace@2</code>). If one has already taken it, the scripts wait for it to finish.
+	 */
+	private void executeInBackground() {
+		final File logFile = BackgroundScriptLogAction.logFileOf(build);
+		final BackgroundScriptLogAction action = new BackgroundScriptLogAction();
+		build.addAction(action);
+		listener.getLogger().println("Executing Post-Matrix scripts in the background once the build has finished. Their output will be in " + logFile);
+
+		PENDING.put(build, new Runnable() {
+			public void run() {
+				action.setRunning(true);
+				try {
+					FileOutputStream out = new FileOutputStream(logFile);
+					try {
+						BuildListener backgroundListener = new StreamBuildListener(out, build.getCharset());
+						WorkspaceList.Lease lease = leaseWorkspace(backgroundListener);
+						try {
+							backgroundListener.getLogger().println("Executing Post-Matrix scripts");
+							execute(CONTINUE_ON_FAILURE, backgroundListener);
+							backgroundListener.getLogger().println("Finished Post-Matrix scripts");
+						} finally {
+							if(lease != null) {
+								lease.release();
+							}
+						}
+					} finally {
+						out.close();
+					}
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Post-Matrix scripts failed for " + build.getFullDisplayName(), e);
+				} catch (InterruptedException e) {
+					LOGGER.log(Level.WARNING, "Post-Matrix scripts were interrupted for " + build.getFullDisplayName(), e);
+				} finally {
+					action.setRunning(false);
+					try {
+						build.save(); //the script log index was added after the build was saved
+					} catch (IOException e) {
+						LOGGER.log(Level.WARNING, "Unable to save " + build.getFullDisplayName(), e);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return The lease on the build's workspace, or null if it doesn't have one.
+	 */
+	private WorkspaceList.Lease leaseWorkspace(BuildListener listener) throws InterruptedException {
+		FilePath workspace = build.getWorkspace();
+		Node node = build.getBuiltOn();
+		Computer computer = node == null ? null : node.toComputer();
+		if(workspace == null || computer == null) {
+			return null;
+		}
+		listener.getLogger().println("Leasing the workspace " + workspace.getRemote());
+		return computer.getWorkspaceList().acquire(workspace);
+	}
+
+	/**
+	 * Starts a build's background Post-Matrix scripts once it's completed.
+	 */
+	@Extension
+	public static class RunListenerImpl extends RunListener<MatrixBuild> {
+		public RunListenerImpl() {
+			super(MatrixBuild.class);
+		}
+
+		@Override
+		public void onCompleted(MatrixBuild build, TaskListener listener) {
+			Runnable pending = PENDING.remove(build);
+			if(pending != null) {
+				BACKGROUND.submit(pending);
 			}
 		}
-		return true;
 	}
 }
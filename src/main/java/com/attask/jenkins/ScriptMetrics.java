@@ -0,0 +1,332 @@
+package com.attask.jenkins;
+
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory timings and counters for script runs, broken down by phase, script, node and outcome.
+ * <p/>
+ * Each run collects its phase timings in a {@link Sample}. They're only added to the shared histograms once the run
+ * finishes and its outcome is known. Recording takes a map lookup and a few atomic increments, with no locks.
+ */
+public class ScriptMetrics {
+	/**
+	 * Caps the number of distinct series so a job that generates script names can't grow this forever.
+	 * Anything past the cap is counted under {@link #OVERFLOW_SCRIPT}.
+	 */
+	public static final int MAX_SERIES = 5000;
+	public static final String OVERFLOW_SCRIPT = "_other";
+	private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+	public enum Phase {
+		/** Looking the script up in the {@link ScriptIndex}. */
+		DISCOVERY,
+		/** Hashing the script's inputs to decide if it can be skipped. */
+		FINGERPRINT,
+		/** Waiting for a slot in the {@link MasterExecutionQueue} to run on master. */
+		QUEUE,
+		/** Leasing, creating, releasing or deleting the temporary workspace of a script run on master. */
+		WORKSPACE,
+		/** Reading the script's contents on the master. */
+		FETCH,
+		/** Making sure the script is in the node's {@link ScriptCache}. */
+		CACHE,
+		/** Writing the script into the workspace when it isn't cached. */
+		CREATE_SCRIPT,
+		/** Building the environment the script runs with. */
+		ENVIRONMENT,
+		/** The script's process, from launch until it exits. */
+		PROCESS,
+		/** Reading and injecting the properties file. */
+		INJECT,
+		/** The whole run. */
+		TOTAL;
+
+		public String getMetricName() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final ConcurrentMap<Key, Histogram> histograms = new ConcurrentHashMap<Key, Histogram>();
+	private final ConcurrentMap<Key, AtomicLong> counters = new ConcurrentHashMap<Key, AtomicLong>();
+
+	/**
+	 * Starts collecting the timings of a single run.
+	 */
+	public Sample start(String scriptName, String node) {
+		return new Sample(scriptName, node);
+	}
+
+	/**
+	 * Adds a finished run's timings and counts the run.
+	 *
+	 * @param outcome The run's result, e.g. SUCCESS or FAILURE.
+	 */
+	public void finish(Sample sample, String outcome) {
+		for (Map.Entry<Phase, Long> entry : sample.getMicros().entrySet()) {
+			histogram(new Key(entry.getKey().getMetricName(), sample.script, sample.node, outcome)).record(entry.getValue());
+		}
+		increment("runs", sample.script, sample.node, outcome);
+	}
+
+	/**
+	 * Adds one to a named counter.
+	 */
+	public void increment(String counter, String script, String node, String outcome) {
+		Key key = new Key(counter, script, node, outcome);
+		AtomicLong count = counters.get(key);
+		if(count == null) {
+			AtomicLong created = new AtomicLong();
+			count = counters.putIfAbsent(cap(key, counters), created);
+			if(count == null) {
+				count = created;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	private Histogram histogram(Key key) {
+		Histogram histogram = histograms.get(key);
+		if(histogram == null) {
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(cap(key, histograms), created);
+			if(histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	private static Key cap(Key key, Map<Key, ?> series) {
+		if(series.size() < MAX_SERIES) {
+			return key;
+		}
+		return new Key(key.name, OVERFLOW_SCRIPT, key.node, key.outcome);
+	}
+
+	public void reset() {
+		histograms.clear();
+		counters.clear();
+	}
+
+	/**
+	 * Writes everything in the Prometheus text format.
+	 */
+	public void writeTo(PrintWriter writer) {
+		writer.println("# TYPE script_phase_millis summary");
+		for (Map.Entry<Key, Histogram> entry : sorted(histograms).entrySet()) {
+			Key key = entry.getKey();
+			Histogram histogram = entry.getValue();
+			String labels = "phase=\"" + key.name + "\"," + key.labels();
+			for (double quantile : QUANTILES) {
+				writer.println("script_phase_millis{" + labels + ",quantile=\"" + quantile + "\"} " + millis(histogram.percentile(quantile)));
+			}
+			writer.println("script_phase_millis_sum{" + labels + "} " + millis(histogram.getSum()));
+			writer.println("script_phase_millis_count{" + labels + "} " + histogram.getCount());
+			writer.println("script_phase_millis_max{" + labels + "} " + millis(histogram.getMax()));
+		}
+
+		String previousName = null;
+		for (Map.Entry<Key, AtomicLong> entry : sorted(counters).entrySet()) {
+			Key key = entry.getKey();
+			String name = "script_" + key.name + "_total";
+			if(!name.equals(previousName)) {
+				writer.println("# TYPE " + name + " counter");
+				previousName = name;
+			}
+			writer.println(name + "{" + key.labels() + "} " + entry.getValue().get());
+		}
+	}
+
+	private static <T> SortedMap<Key, T> sorted(Map<Key, T> map) {
+		return new TreeMap<Key, T>(map);
+	}
+
+	private static String millis(long micros) {
+		return String.format(Locale.ENGLISH, "%.3f", micros / 1000.0);
+	}
+
+	/**
+	 * The timings of one run that hasn't finished yet. Not thread safe; a run belongs to a single thread.
+	 */
+	public static class Sample {
+		private final String script;
+		private final String node;
+		private final long start = System.nanoTime();
+		private final Map<Phase, Long> micros = new EnumMap<Phase, Long>(Phase.class);
+
+		private Sample(String script, String node) {
+			this.script = script;
+			this.node = node;
+		}
+
+		public String getScript() {
+			return script;
+		}
+
+		public String getNode() {
+			return node;
+		}
+
+		/**
+		 * Adds the time since the given {@link System#nanoTime()} to a phase.
+		 */
+		public void record(Phase phase, long startNanos) {
+			record(phase, startNanos, System.nanoTime());
+		}
+
+		/**
+		 * Adds the time between two {@link System#nanoTime()}s to a phase, for timings measured before the sample was started.
+		 */
+		public void record(Phase phase, long startNanos, long endNanos) {
+			long elapsed = (endNanos - startNanos) / 1000;
+			Long previous = micros.get(phase);
+			micros.put(phase, previous == null ? elapsed : previous + elapsed);
+		}
+
+		Map<Phase, Long> getMicros() {
+			if(!micros.containsKey(Phase.TOTAL)) {
+				record(Phase.TOTAL, start);
+			}
+			return micros;
+		}
+	}
+
+	/**
+	 * A histogram with log-linear buckets: exact below 16, then 8 buckets per power of two, so any percentile is within 12.5%.
+	 * Values are clamped to 2^40 (about 12 days in microseconds).
+	 */
+	static class Histogram {
+		private static final int LINEAR_BUCKETS = 16;
+		private static final int SUB_BUCKETS = 8;
+		private static final int MAX_EXPONENT = 40;
+		private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+		private static final int BUCKETS = LINEAR_BUCKETS + (MAX_EXPONENT - 4) * SUB_BUCKETS;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		void record(long value) {
+			value = Math.max(0, Math.min(value, MAX_VALUE));
+			buckets.incrementAndGet(bucketFor(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long currentMax;
+			while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+				//retry
+			}
+		}
+
+		/**
+		 * @return The smallest bucket bound that at least the given fraction of values are at or below. Zero if nothing was recorded.
+		 */
+		long percentile(double quantile) {
+			long total = count.get();
+			if(total == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * total));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets.get(i);
+				if(seen >= rank) {
+					return Math.min(upperBoundOf(i), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		long getCount() {
+			return count.get();
+		}
+
+		long getSum() {
+			return sum.get();
+		}
+
+		long getMax() {
+			return max.get();
+		}
+
+		static int bucketFor(long value) {
+			if(value < LINEAR_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int subBucket = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+			return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+		}
+
+		static long upperBoundOf(int bucket) {
+			if(bucket < LINEAR_BUCKETS) {
+				return bucket;
+			}
+			int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+			int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+			return ((SUB_BUCKETS + subBucket + 1L) << (exponent - 3)) - 1;
+		}
+	}
+
+	private static class Key implements Comparable<Key> {
+		private final String name;
+		private final String script;
+		private final String node;
+		private final String outcome;
+
+		private Key(String name, String script, String node, String outcome) {
+			this.name = name;
+			this.script = script == null ? "" : script;
+			this.node = node == null ? "" : node;
+			this.outcome = outcome == null ? "" : outcome;
+		}
+
+		private String labels() {
+			return "script=\"" + escape(script) + "\",node=\"" + escape(node) + "\",outcome=\"" + escape(outcome) + "\"";
+		}
+
+		private static String escape(String value) {
+			return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+		}
+
+		public int compareTo(Key that) {
+			int result = name.compareTo(that.name);
+			if(result == 0) {
+				result = script.compareTo(that.script);
+			}
+			if(result == 0) {
+				result = node.compareTo(that.node);
+			}
+			if(result == 0) {
+				result = outcome.compareTo(that.outcome);
+			}
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(this == o) {
+				return true;
+			}
+			if(!(o instanceof Key)) {
+				return false;
+			}
+			Key that = (Key) o;
+			return name.equals(that.name) && script.equals(that.script) && node.equals(that.node) && outcome.equals(that.outcome);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = name.hashCode();
+			result = 31 * result + script.hashCode();
+			result = 31 * result + node.hashCode();
+			result = 31 * result + outcome.hashCode();
+			return result;
+		}
+	}
+}
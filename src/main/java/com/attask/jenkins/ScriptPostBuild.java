@@ -24,10 +24,23 @@ import java.util.List;
 @ExportedBean
 public class ScriptPostBuild extends Recorder {
 	private List<ScriptBuilder> scripts;
+	private boolean parallel;
+	private int maxParallel;
+	private boolean batched;
 
 	@DataBoundConstructor
-	public ScriptPostBuild(List<ScriptBuilder> scripts) {
+	public ScriptPostBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean batched) {
 		this.scripts = scripts;
+		this.parallel = parallel;
+		this.maxParallel = maxParallel;
+		this.batched = batched;
+	}
+
+	/**
+	 * For the matrix versions, whose aggregators run the scripts without batching.
+	 */
+	protected ScriptPostBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel) {
+		this(scripts, parallel, maxParallel, false);
 	}
 
 	@Exported
@@ -35,14 +48,31 @@ public class ScriptPostBuild extends Recorder {
 		return scripts;
 	}
 
+	/**
+	 * If true, the scripts run at the same time (up to {@link #getMaxParallel()}), respecting each script's {@link ScriptBuilder#getDependsOn()}.
+	 */
+	@Exported
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	@Exported
+	public int getMaxParallel() {
+		return maxParallel;
+	}
+
+	/**
+	 * If true, scripts that don't run in parallel share a single process where they can. See {@link ScriptBatch}.
+	 */
+	@Exported
+	public boolean getBatched() {
+		return batched;
+	}
+
 	@Override
 	public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 		listener.getLogger().println("Executing post-build scripts");
-		boolean result = true;
-		for (ScriptBuilder script : scripts) {
-			result = result && script.perform(build, launcher, listener);
-		}
-		return result;
+		return new ScriptListExecutor(scripts, parallel, maxParallel, true, batched).execute(build, launcher, listener);
 	}
 
 	public BuildStepMonitor getRequiredMonitorService() {
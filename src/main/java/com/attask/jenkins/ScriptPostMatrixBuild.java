@@ -27,9 +27,21 @@ import java.util.List;
  */
 @ExportedBean
 public class ScriptPostMatrixBuild extends ScriptPostBuild implements MatrixAggregatable {
+	private boolean runInBackground;
+
 	@DataBoundConstructor
-	public ScriptPostMatrixBuild(List<ScriptBuilder> scripts) {
-		super(scripts);
+	public ScriptPostMatrixBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean runInBackground) {
+		super(scripts, parallel, maxParallel);
+		this.runInBackground = runInBackground;
+	}
+
+	/**
+	 * If true, the scripts run off the executor thread after the configurations finish, so the executor is freed right away.
+	 * They can't change the build's result, and their output goes to a separate log.
+	 */
+	@Exported
+	public boolean getRunInBackground() {
+		return runInBackground;
 	}
 
 	@Override
@@ -42,7 +54,7 @@ public class ScriptPostMatrixBuild extends ScriptPostBuild implements MatrixAggr
 	}
 
 	public MatrixAggregator createAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
-		return new ScriptMatrixAggregator(build, launcher, listener, false, true, getScripts());
+		return new ScriptMatrixAggregator(build, launcher, listener, false, true, getScripts(), getParallel(), getMaxParallel(), runInBackground);
 	}
 
 	@Extension
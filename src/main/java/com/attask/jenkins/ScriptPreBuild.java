@@ -22,10 +22,23 @@ import java.util.List;
 @ExportedBean
 public class ScriptPreBuild extends BuildWrapper {
 	private List<ScriptBuilder> scripts;
+	private boolean parallel;
+	private int maxParallel;
+	private boolean batched;
 
 	@DataBoundConstructor
-	public ScriptPreBuild(List<ScriptBuilder> scripts) {
+	public ScriptPreBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel, boolean batched) {
 		this.scripts = scripts;
+		this.parallel = parallel;
+		this.maxParallel = maxParallel;
+		this.batched = batched;
+	}
+
+	/**
+	 * For the matrix versions, whose aggregators run the scripts without batching.
+	 */
+	protected ScriptPreBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel) {
+		this(scripts, parallel, maxParallel, false);
 	}
 
 	@Exported
@@ -33,13 +46,31 @@ public class ScriptPreBuild extends BuildWrapper {
 		return scripts;
 	}
 
+	/**
+	 * If true, the scripts run at the same time (up to {@link #getMaxParallel()}), respecting each script's {@link ScriptBuilder#getDependsOn()}.
+	 */
+	@Exported
+	public boolean getParallel() {
+		return parallel;
+	}
+
+	@Exported
+	public int getMaxParallel() {
+		return maxParallel;
+	}
+
+	/**
+	 * If true, scripts that don't run in parallel share a single process where they can. See {@link ScriptBatch}.
+	 */
+	@Exported
+	public boolean getBatched() {
+		return batched;
+	}
+
 	@Override
 	public Environment setUp(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
 		listener.getLogger().println("Executing pre-build scripts");
-		boolean result = true;
-		for (ScriptBuilder script : scripts) {
-			result = result && script.perform(build, launcher, listener);
-		}
+		boolean result = new ScriptListExecutor(scripts, parallel, maxParallel, true, batched).execute(build, launcher, listener);
 
 		if(!result) {
 			throw new FailedScriptException("One or more of the pre-build scripts failed");
@@ -22,8 +22,8 @@ import java.util.List;
  */
 public class ScriptPreMatrixBuild extends ScriptPreBuild implements MatrixAggregatable {
 	@DataBoundConstructor
-	public ScriptPreMatrixBuild(List<ScriptBuilder> scripts) {
-		super(scripts);
+	public ScriptPreMatrixBuild(List<ScriptBuilder> scripts, boolean parallel, int maxParallel) {
+		super(scripts, parallel, maxParallel);
 	}
 
 	@Override
@@ -37,7 +37,7 @@ public class ScriptPreMatrixBuild extends ScriptPreBuild implements MatrixAggreg
 	}
 
 	public MatrixAggregator createAggregator(MatrixBuild build, Launcher launcher, BuildListener listener) {
-		return new ScriptMatrixAggregator(build, launcher, listener, true, false, getScripts());
+		return new ScriptMatrixAggregator(build, launcher, listener, true, false, getScripts(), getParallel(), getMaxParallel(), false);
 	}
 
 	@Extension
@@ -0,0 +1,39 @@
+package com.attask.jenkins;
+
+import hudson.model.AbstractBuild;
+import hudson.model.InvisibleAction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers how long each script took in a build, so the next build can start the longest scripts first when running in parallel.
+ */
+public class ScriptTimingsAction extends InvisibleAction {
+	private static final Object LOCK = new Object();
+
+	private final Map<String, Long> durations = new HashMap<String, Long>();
+
+	public static void record(AbstractBuild<?, ?> build, String scriptName, long duration) {
+		if(!build.isBuilding()) {
+			return;
+		}
+		synchronized (LOCK) {
+			ScriptTimingsAction action = build.getAction(ScriptTimingsAction.class);
+			if(action == null) {
+				action = new ScriptTimingsAction();
+				build.addAction(action);
+			}
+			action.durations.put(scriptName, duration);
+		}
+	}
+
+	/**
+	 * @return How long the script took, or null if it didn't run in this build.
+	 */
+	public Long getDuration(String scriptName) {
+		synchronized (LOCK) {
+			return durations.get(scriptName);
+		}
+	}
+}
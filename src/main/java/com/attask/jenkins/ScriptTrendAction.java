@@ -0,0 +1,75 @@
+package com.attask.jenkins;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.model.TransientProjectActionFactory;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows how long each script has taken over a job's recent builds, read from its {@link ScriptHistory}.
+ * The number of builds can be given with <code>?builds=N</code>, on both the page and the API.
+ */
+@ExportedBean
+public class ScriptTrendAction implements Action {
+	private final AbstractProject<?, ?> project;
+
+	public ScriptTrendAction(AbstractProject<?, ?> project) {
+		this.project = project;
+	}
+
+	public AbstractProject<?, ?> getProject() {
+		return project;
+	}
+
+	@Exported
+	public List<ScriptHistory.Trend> getTrends() {
+		StaplerRequest request = Stapler.getCurrentRequest();
+		return getTrends(request == null ? null : request.getParameter("builds"));
+	}
+
+	public List<ScriptHistory.Trend> getTrends(String builds) {
+		int count = ScriptHistory.DEFAULT_BUILDS;
+		if(builds != null) {
+			try {
+				count = Math.max(1, Integer.parseInt(builds));
+			} catch (NumberFormatException ignore) {
+				//use the default
+			}
+		}
+		return new ArrayList<ScriptHistory.Trend>(ScriptHistory.of(project).getTrends(count).values());
+	}
+
+	public Api getApi() {
+		return new Api(this);
+	}
+
+	public String getIconFileName() {
+		return ScriptHistory.of(project).exists() ? "graph.png" : null;
+	}
+
+	public String getDisplayName() {
+		return "Script Trends";
+	}
+
+	public String getUrlName() {
+		return "scriptTrend";
+	}
+
+	@Extension
+	public static class Factory extends TransientProjectActionFactory {
+		@Override
+		public Collection<? extends Action> createFor(AbstractProject target) {
+			return Collections.singletonList(new ScriptTrendAction(target));
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.attask.jenkins;
+
+import hudson.Proc;
+import hudson.model.Computer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Waits for a script's process, killing it and everything it started if it runs too long, goes too long without any output,
+ * or the build is aborted.
+ * <p/>
+ * One timer thread checks every running script once a second. The kill itself happens on another thread
+ * since killing a process on a slave is a remote call.
+ */
+public class ScriptWatchdog {
+	private static final Logger LOGGER = Logger.getLogger(ScriptWatchdog.class.getName());
+	private static final long CHECK_INTERVAL_MILLIS = 1000;
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(ScriptListExecutor.threadFactory("Script timeout watchdog"));
+
+	public enum Timeout {
+		WALL_CLOCK("timeout"),
+		IDLE("idle timeout");
+
+		private final String humanReadable;
+
+		Timeout(String humanReadable) {
+			this.humanReadable = humanReadable;
+		}
+
+		public String getHumanReadable() {
+			return humanReadable;
+		}
+	}
+
+	private final long timeoutMillis;
+	private final long idleTimeoutMillis;
+	private volatile long lastOutput;
+	private volatile Timeout fired;
+
+	/**
+	 * @param timeoutMillis How long the script can run for. Zero for no limit.
+	 * @param idleTimeoutMillis How long the script can go without writing any output. Zero for no limit.
+	 */
+	public ScriptWatchdog(long timeoutMillis, long idleTimeoutMillis) {
+		this.timeoutMillis = Math.max(0, timeoutMillis);
+		this.idleTimeoutMillis = Math.max(0, idleTimeoutMillis);
+	}
+
+	/**
+	 * Wraps the process's output so it counts as activity for the idle timeout.
+	 */
+	public OutputStream watch(OutputStream output) {
+		if(idleTimeoutMillis <= 0) {
+			return output;
+		}
+		return new FilterOutputStream(output) {
+			@Override
+			public void write(int b) throws IOException {
+				lastOutput = System.currentTimeMillis();
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				lastOutput = System.currentTimeMillis();
+				out.write(b, off, len);
+			}
+		};
+	}
+
+	/**
+	 * Waits for the process to exit.
+	 * If the thread is interrupted (the build was aborted) the process tree is killed before the interrupt is rethrown.
+	 *
+	 * @return The process's exit code, which is meaningless if {@link #getFired()} isn't null.
+	 */
+	public int join(final Proc proc, final PrintStream logger) throws IOException, InterruptedException {
+		final long startTime = System.currentTimeMillis();
+		lastOutput = startTime;
+
+		ScheduledFuture<?> check = null;
+		if(timeoutMillis > 0 || idleTimeoutMillis > 0) {
+			check = TIMER.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					if(fired != null) {
+						return;
+					}
+					long now = System.currentTimeMillis();
+					if(timeoutMillis > 0 && now - startTime >= timeoutMillis) {
+						fire(Timeout.WALL_CLOCK, proc, logger, "Script ran longer than " + timeoutMillis / 1000 + "s");
+					} else if(idleTimeoutMillis > 0 && now - lastOutput >= idleTimeoutMillis) {
+						fire(Timeout.IDLE, proc, logger, "Script wrote no output for " + idleTimeoutMillis / 1000 + "s");
+					}
+				}
+			}, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
+		try {
+			return proc.join();
+		} catch (InterruptedException e) {
+			logger.println("Aborted. Killing the script and everything it started.");
+			kill(proc);
+			throw e;
+		} finally {
+			if(check != null) {
+				check.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * @return Which timeout killed the process, or null if none did.
+	 */
+	public Timeout getFired() {
+		return fired;
+	}
+
+	private void fire(Timeout timeout, final Proc proc, PrintStream logger, String message) {
+		fired = timeout;
+		logger.println(message + ". Killing the script and everything it started.");
+		Computer.threadPoolForRemoting.submit(new Runnable() {
+			public void run() {
+				kill(proc);
+			}
+		});
+	}
+
+	private static void kill(Proc proc) {
+		try {
+			proc.kill();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to kill script process", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+package com.attask.jenkins;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.AbstractBuild;
+import hudson.model.Computer;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Runs scripts in a shell that's started once per build and node, instead of launching a new process for every script.
+ * <p/>
+ * Each script is written to the shell's stdin as a single command that runs it in a subshell, with its own working directory
+ * and environment, and then prints a marker line with the exit code. The subshell sets and exports the variables itself,
+ * so they never show up in a process's arguments. Scripts with variables whose names the shell can't set get a new process instead
+ * (see {@link #canSet(Map)}). Everything the shell prints up to the marker is the script's output.
+ * Scripts started while every shell is busy get a new shell, so parallel scripts never share one.
+ * A shell that's killed (by a timeout or an abort) is thrown away. The rest are closed when the build completes.
+ * <p/>
+ * Only for Unix nodes.
+ */
+public class WarmShell {
+	private static final Logger LOGGER = Logger.getLogger(WarmShell.class.getName());
+	private static final Pattern SHELL_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+	/** Idle shells by build, then by node. Guarded by itself. */
+	private static final Map<AbstractBuild<?, ?>, Map<String, Deque<WarmShell>>> IDLE = new WeakHashMap<AbstractBuild<?, ?>, Map<String, Deque<WarmShell>>>();
+
+	private final Proc proc;
+	private final OutputStream stdin;
+	private final InputStream stdout;
+	private final byte[] marker;
+	private volatile boolean killed;
+
+	private WarmShell(Proc proc) {
+		this.proc = proc;
+		this.stdin = proc.getStdin();
+		this.stdout = new BufferedInputStream(proc.getStdout());
+		try {
+			this.marker = ("\u0001script-done-" + UUID.randomUUID().toString() + " ").getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Starts a script in one of the build's idle shells on the node, starting a new one if there aren't any.
+	 *
+	 * @param node Identifies the node the launcher launches on.
+	 * @param commandLine The script's command line, e.g. from {@link hudson.tasks.CommandInterpreter#buildCommandLine(FilePath)}.
+	 * @param output Where the script's stdout and stderr go.
+	 * @return The running script. {@link Proc#join()} returns its exit code; {@link Proc#kill()} kills the shell and everything it started.
+	 */
+	public static Proc start(AbstractBuild<?, ?> build, String node, Launcher launcher, FilePath workspace, String[] commandLine, EnvVars envVars, OutputStream output) throws IOException, InterruptedException {
+		WarmShell shell = lease(build, node);
+		if(shell == null) {
+			shell = new WarmShell(launcher.launch().cmds("sh", "-s").pwd(workspace).readStdout().writeStdin().start());
+		}
+		return shell.run(build, node, workspace, commandLine, envVars, output);
+	}
+
+	/**
+	 * Whether a shell can set every one of the variables. Only names that are shell identifiers can be.
+	 */
+	public static boolean canSet(Map<String, String> envVars) {
+		for (String name : envVars.keySet()) {
+			if(!isShellName(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean isShellName(String name) {
+		return SHELL_NAME.matcher(name).matches();
+	}
+
+	/**
+	 * Closes every idle shell the build started. Called when the build completes.
+	 */
+	public static void closeAll(AbstractBuild<?, ?> build) {
+		Map<String, Deque<WarmShell>> byNode;
+		synchronized (IDLE) {
+			byNode = IDLE.remove(build);
+		}
+		if(byNode == null) {
+			return;
+		}
+		for (Deque<WarmShell> shells : byNode.values()) {
+			for (WarmShell shell : shells) {
+				shell.close();
+			}
+		}
+	}
+
+	private static WarmShell lease(AbstractBuild<?, ?> build, String node) {
+		synchronized (IDLE) {
+			Map<String, Deque<WarmShell>> byNode = IDLE.get(build);
+			Deque<WarmShell> shells = byNode == null ? null : byNode.get(node);
+			while(shells != null && !shells.isEmpty()) {
+				WarmShell shell = shells.pollFirst();
+				if(shell.isAlive()) {
+					return shell;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static void release(AbstractBuild<?, ?> build, String node, WarmShell shell) {
+		synchronized (IDLE) {
+			if(build.isBuilding()) {
+				Map<String, Deque<WarmShell>> byNode = IDLE.get(build);
+				if(byNode == null) {
+					byNode = new HashMap<String, Deque<WarmShell>>();
+					IDLE.put(build, byNode);
+				}
+				Deque<WarmShell> shells = byNode.get(node);
+				if(shells == null) {
+					shells = new ArrayDeque<WarmShell>();
+					byNode.put(node, shells);
+				}
+				shells.addFirst(shell);
+				return;
+			}
+		}
+		shell.close();
+	}
+
+	private Proc run(final AbstractBuild<?, ?> build, final String node, FilePath workspace, String[] commandLine, EnvVars envVars, final OutputStream output) throws IOException {
+		stdin.write(command(workspace.getRemote(), commandLine, envVars, new String(marker, "US-ASCII")).getBytes("UTF-8"));
+		stdin.flush();
+
+		final Future<Integer> exitCode = Computer.threadPoolForRemoting.submit(new Callable<Integer>() {
+			public Integer call() throws IOException {
+				Integer result = copyUntilMarker(output);
+				if(result == null) {
+					if(killed) {
+						return -1;
+					}
+					throw new IOException("The shell exited before the script finished.");
+				}
+				release(build, node, WarmShell.this);
+				return result;
+			}
+		});
+
+		return new Proc() {
+			@Override
+			public boolean isAlive() throws IOException, InterruptedException {
+				return !exitCode.isDone();
+			}
+
+			@Override
+			public void kill() throws IOException, InterruptedException {
+				WarmShell.this.kill();
+			}
+
+			@Override
+			public int join() throws IOException, InterruptedException {
+				try {
+					return exitCode.get();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause());
+				}
+			}
+
+			@Override
+			public InputStream getStdout() {
+				return null;
+			}
+
+			@Override
+			public InputStream getStderr() {
+				return null;
+			}
+
+			@Override
+			public OutputStream getStdin() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * A single line of shell that runs the command line in a subshell and prints the marker and its exit code.
+	 * The subshell exports the script's environment on top of the shell's own, and has no stdin so it can't read the commands meant for the shell.
+	 * Every name must be one the shell can set (see {@link #canSet(Map)}).
+	 */
+	static String command(String workspace, String[] commandLine, Map<String, String> envVars, String marker) {
+		StringBuilder command = new StringBuilder("( cd ").append(quote(workspace)).append(" &&");
+		for (Map.Entry<String, String> entry : envVars.entrySet()) {
+			command.append(' ').append(entry.getKey()).append('=').append(quote(entry.getValue()))
+					.append(" && export ").append(entry.getKey()).append(" &&");
+		}
+		command.append(" exec");
+		for (String argument : commandLine) {
+			command.append(' ').append(quote(argument));
+		}
+		command.append(" ) </dev/null 2>&1; printf '%s%d\\n' ").append(quote(marker)).append(" $?\n");
+		return command.toString();
+	}
+
+	static String quote(String value) {
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Copies the shell's output a line at a time until the marker.
+	 *
+	 * @return The exit code after the marker, or null if the shell exited first.
+	 */
+	Integer copyUntilMarker(OutputStream output) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+		int b;
+		while((b = stdout.read()) >= 0) {
+			line.write(b);
+			if(b != '\n') {
+				continue;
+			}
+			byte[] bytes = line.toByteArray();
+			line.reset();
+			int markerAt = indexOf(bytes, marker);
+			if(markerAt < 0) {
+				output.write(bytes);
+				continue;
+			}
+			output.write(bytes, 0, markerAt);
+			output.flush();
+			String exitCode = new String(bytes, markerAt + marker.length, bytes.length - markerAt - marker.length, "US-ASCII").trim();
+			try {
+				return Integer.parseInt(exitCode);
+			} catch (NumberFormatException e) {
+				throw new IOException("Unexpected exit code from the shell: " + exitCode);
+			}
+		}
+		output.write(line.toByteArray());
+		output.flush();
+		return null;
+	}
+
+	static int indexOf(byte[] bytes, byte[] target) {
+		outer:
+		for (int i = 0; i <= bytes.length - target.length; i++) {
+			for (int j = 0; j < target.length; j++) {
+				if(bytes[i + j] != target[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private boolean isAlive() {
+		if(killed) {
+			return false;
+		}
+		try {
+			return proc.isAlive();
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void kill() throws IOException, InterruptedException {
+		killed = true;
+		proc.kill();
+	}
+
+	/**
+	 * Lets the shell exit on its own by closing its stdin, and kills it if that doesn't work.
+	 */
+	private void close() {
+		try {
+			stdin.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Unable to close a warm shell's stdin, killing it", e);
+			try {
+				kill();
+			} catch (IOException killFailed) {
+				LOGGER.log(Level.WARNING, "Unable to kill a warm shell", killFailed);
+			} catch (InterruptedException interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Closes each build's shells when it completes.
+	 */
+	@Extension
+	public static class BuildCompletion extends RunListener<AbstractBuild<?, ?>> {
+		@SuppressWarnings("unchecked")
+		public BuildCompletion() {
+			super((Class) AbstractBuild.class);
+		}
+
+		@Override
+		public void onCompleted(AbstractBuild<?, ?> build, TaskListener listener) {
+			closeAll(build);
+		}
+	}
+}
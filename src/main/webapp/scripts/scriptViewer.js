@@ -4,7 +4,7 @@ function hideContent(guid) {
 }
 
 function showContent(guid) {
-	var selectBox = $('select-' + guid);
+	var scriptNameBox = $('scriptName-' + guid);
 
 	var url = ROOT_URL;
 	if(!url.endsWith('/')) {
@@ -13,11 +13,12 @@ function showContent(guid) {
 
 	new Ajax.Request(url+'scriptApi/file', {
 		method: 'get',
-		parameters: { 'path': selectBox.value },
+		parameters: { 'path': scriptNameBox.value },
 		evalJS: 'false',
 		onSuccess: function(transport) {
 			var codeTag = $('code-' + guid);
 			codeTag.innerText = transport.responseText;
+			codeTag.setAttribute('data-etag', transport.getHeader('ETag') || '');
 
 			var codeEditor = $('codeEditor-' + guid);
 			codeEditor.style.display = "block";
@@ -29,7 +30,7 @@ function showContent(guid) {
 	});
 }
 
-function selectChanged(guid) {
+function scriptNameChanged(guid) {
 	var codeTag = $('codeEditor-' + guid);
 	if(codeTag.style.display == "block") {
 		showContent(guid);
@@ -53,22 +54,38 @@ function saveChanges(guid) {
 		url = url + '/';
 	}
 
-	var selectBox = $('select-' + guid);
+	var scriptNameBox = $('scriptName-' + guid);
 	var codeEditor = $('codeEditor-' + guid);
 	var codeBox = codeEditor.down("pre");
 	codeBox.style.backgroundColor = "#D5D5D5";
 	codeBox.removeAttribute("contenteditable");
 
-	new Ajax.Request(url+'scriptApi/updateFile', {
+	var codeTag = $('code-' + guid);
+	var headers = {};
+	if(codeTag.getAttribute('data-etag')) {
+		headers['If-Match'] = codeTag.getAttribute('data-etag');
+	}
+
+	new Ajax.Request(url+'scriptApi/updateFile?path=' + encodeURIComponent(scriptNameBox.value), {
 		method: 'post',
-		parameters: { 'path': selectBox.value, 'content': codeEditor.innerText },
+		contentType: 'text/plain',
+		postBody: codeEditor.innerText,
+		requestHeaders: headers,
 		evalJS: 'false',
 		onSuccess: function(transport) {
+			codeTag.setAttribute('data-etag', transport.getHeader('ETag') || '');
 			codeBox.style.backgroundColor = "white";
 			codeBox.setAttribute("contenteditable", true);
 			prettyPrint();
 		},
-		onError: function(transport) {
+		on412: function(transport) {
+			alert("The script has been changed by someone else since it was loaded. Reload it before saving.");
+
+			codeBox.style.backgroundColor = "white";
+			codeBox.setAttribute("contenteditable", true);
+			prettyPrint();
+		},
+		onFailure: function(transport) {
 			alert("failed to save!", transport);
 			console.log("failed to save!");
 
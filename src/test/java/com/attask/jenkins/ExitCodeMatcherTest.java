@@ -0,0 +1,46 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+public class ExitCodeMatcherTest extends TestCase {
+	public void testCompile_CUSTOM_overlappingRanges() {
+		ExitCodeMatcher matcher = ExitCodeMatcher.compile(ErrorMode.CUSTOM, "20 > 40, 5, 1 > 10, 30 > 50, 11");
+		assertTrue("low end", matcher.matches(1));
+		assertTrue("adjacent single value", matcher.matches(11));
+		assertTrue("merged", matcher.matches(45));
+		assertTrue("high end", matcher.matches(50));
+
+		assertFalse("gap", matcher.matches(15));
+		assertFalse("below", matcher.matches(0));
+		assertFalse("above", matcher.matches(51));
+	}
+
+	public void testCompile_CUSTOM_trailingComma() {
+		ExitCodeMatcher matcher = ExitCodeMatcher.compile(ErrorMode.CUSTOM, "1,2,");
+		assertTrue(matcher.matches(2));
+		assertFalse(matcher.matches(3));
+	}
+
+	public void testCompile_NONE() {
+		ExitCodeMatcher matcher = ExitCodeMatcher.compile(ErrorMode.NONE, "not a number");
+		assertFalse("zero", matcher.matches(0));
+		assertFalse("non-zero", matcher.matches(1));
+	}
+
+	public void testCompile_invalid() {
+		assertInvalid(ErrorMode.EXACTLY, "");
+		assertInvalid(ErrorMode.LESS_THAN, "abc");
+		assertInvalid(ErrorMode.CUSTOM, "1,,2");
+		assertInvalid(ErrorMode.CUSTOM, "10>");
+		assertInvalid(ErrorMode.CUSTOM, "20>10");
+	}
+
+	private void assertInvalid(ErrorMode mode, String range) {
+		try {
+			ExitCodeMatcher.compile(mode, range);
+			fail("'" + range + "' should not be valid for " + mode);
+		} catch (IllegalArgumentException ignore) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+
+public class FileTypeMatcherTest extends TestCase {
+	public void testSuffixes() {
+		FileTypeMatcher matcher = FileTypeMatcher.compile(".sh  .bat\t.groovy");
+		assertTrue(matcher.matches(new File("build.sh")));
+		assertTrue(matcher.matches(new File("dir/build.bat")));
+		assertTrue(matcher.matches(new File("x.groovy")));
+		assertFalse(matcher.matches(new File("build.shx")));
+		assertFalse(matcher.matches(new File("sh")));
+		assertFalse("hidden", matcher.matches(new File(".hidden.sh")));
+	}
+
+	public void testOverlappingSuffixes() {
+		FileTypeMatcher matcher = FileTypeMatcher.compile(".test.sh sh");
+		assertTrue(matcher.matches(new File("a.test.sh")));
+		assertTrue(matcher.matches(new File("a.sh")));
+		assertTrue(matcher.matches(new File("bash")));
+	}
+
+	public void testGlobs() {
+		FileTypeMatcher matcher = FileTypeMatcher.compile("build-*.sh deploy?*.[bc]at");
+		assertTrue(matcher.matches(new File("build-all.sh")));
+		assertTrue(matcher.matches(new File("deploy1.bat")));
+		assertTrue(matcher.matches(new File("deploy22.cat")));
+		assertFalse(matcher.matches(new File("deploy.bat")));
+		assertFalse(matcher.matches(new File("build.sh")));
+		assertFalse(matcher.matches(new File("deploy1.dat")));
+		assertFalse("dots are literal", matcher.matches(new File("build-allxsh")));
+	}
+
+	public void testGlobs_negatedClass() {
+		FileTypeMatcher matcher = FileTypeMatcher.compile("*.[!b]at");
+		assertTrue(matcher.matches(new File("deploy.cat")));
+		assertFalse(matcher.matches(new File("deploy.bat")));
+	}
+
+	public void testSuffixesWithoutStar() {
+		FileTypeMatcher matcher = FileTypeMatcher.compile(".sh? [1].txt");
+		assertTrue(matcher.matches(new File("build.sh?")));
+		assertTrue(matcher.matches(new File("notes[1].txt")));
+		assertFalse(matcher.matches(new File("build.sha")));
+		assertFalse(matcher.matches(new File("notes1.txt")));
+	}
+
+	public void testInvalidGlob() {
+		try {
+			FileTypeMatcher.compile("build*[.sh");
+			fail("Should have failed on the unterminated class");
+		} catch (IllegalArgumentException expected) {
+			//expected
+		}
+	}
+
+	public void testEmpty() {
+		assertFalse(FileTypeMatcher.compile("").matches(new File("build.sh")));
+		assertFalse(FileTypeMatcher.compile(null).matches(new File("build.sh")));
+	}
+}
@@ -0,0 +1,22 @@
+package com.attask.jenkins;
+
+import hudson.model.Result;
+import junit.framework.TestCase;
+
+public class GroovyScriptRunnerTest extends TestCase {
+	public void testOutcome_exitCodes() {
+		assertEquals(0, GroovyScriptRunner.Outcome.of(null).getExitCode());
+		assertEquals(0, GroovyScriptRunner.Outcome.of(true).getExitCode());
+		assertEquals(1, GroovyScriptRunner.Outcome.of(false).getExitCode());
+		assertEquals(42, GroovyScriptRunner.Outcome.of(42L).getExitCode());
+		assertEquals(0, GroovyScriptRunner.Outcome.of("some output").getExitCode());
+		assertNull(GroovyScriptRunner.Outcome.of(3).getResult());
+	}
+
+	public void testOutcome_results() {
+		assertEquals("UNSTABLE", GroovyScriptRunner.Outcome.of(Result.UNSTABLE).getResult());
+		assertEquals("UNSTABLE", GroovyScriptRunner.Outcome.of(" unstable ").getResult());
+		assertEquals(1, GroovyScriptRunner.Outcome.of("FAILURE").getExitCode());
+		assertEquals(0, GroovyScriptRunner.Outcome.of("SUCCESS").getExitCode());
+	}
+}
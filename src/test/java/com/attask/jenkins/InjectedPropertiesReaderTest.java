@@ -0,0 +1,60 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+public class InjectedPropertiesReaderTest extends TestCase {
+	public void testReadJson() throws IOException {
+		Map<String, String> result = InjectedPropertiesReader.readJson(new StringReader(
+				"{ \"STRING\" : \"a \\\"quoted\\\"\\nvalue\", \"NUMBER\": -15, \"BOOLEAN\":true, \"NULL\": null, \"UNICODE\": \"\\u0041\" }"
+		), 10);
+
+		assertEquals("size", 5, result.size());
+		assertEquals("string", "a \"quoted\"\nvalue", result.get("STRING"));
+		assertEquals("number", "-15", result.get("NUMBER"));
+		assertEquals("boolean", "true", result.get("BOOLEAN"));
+		assertEquals("null", "", result.get("NULL"));
+		assertEquals("unicode", "A", result.get("UNICODE"));
+	}
+
+	public void testReadJson_empty() throws IOException {
+		assertTrue(InjectedPropertiesReader.readJson(new StringReader(" {} "), 10).isEmpty());
+	}
+
+	public void testReadJson_invalid() {
+		assertInvalid("{\"NESTED\": {}}");
+		assertInvalid("{\"ARRAY\": []}");
+		assertInvalid("{\"UNTERMINATED\": \"abc");
+		assertInvalid("[\"NOT AN OBJECT\"]");
+		assertInvalid("null");
+	}
+
+	public void testReadJson_tooManyKeys() {
+		try {
+			InjectedPropertiesReader.readJson(new StringReader("{\"A\": 1, \"B\": 2, \"C\": 3}"), 2);
+			fail("Should have stopped at the key limit");
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("limit of 2"));
+		}
+	}
+
+	public void testReadProperties() throws IOException {
+		Map<String, String> result = InjectedPropertiesReader.readProperties(new ByteArrayInputStream("A=1\nB = two\n#C=3\n".getBytes("ISO-8859-1")));
+		assertEquals("size", 2, result.size());
+		assertEquals("1", result.get("A"));
+		assertEquals("two", result.get("B"));
+	}
+
+	private void assertInvalid(String json) {
+		try {
+			InjectedPropertiesReader.readJson(new StringReader(json), 10);
+			fail(json + " should not be valid");
+		} catch (IOException ignore) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class InputFingerprintTest extends TestCase {
+	public void testOf_parameterOrderDoesNotMatter() {
+		Map<String, String> first = new LinkedHashMap<String, String>();
+		first.put("A", "1");
+		first.put("B", "2");
+		Map<String, String> second = new LinkedHashMap<String, String>();
+		second.put("B", "2");
+		second.put("A", "1");
+
+		assertEquals(InputFingerprint.of("echo hi", first, "master", "/ws", null), InputFingerprint.of("echo hi", second, "master", "/ws", null));
+	}
+
+	public void testOf_everyInputCounts() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("A", "1");
+		String fingerprint = InputFingerprint.of("echo hi", parameters, "master", "/ws", "abc");
+
+		assertFalse("script", fingerprint.equals(InputFingerprint.of("echo bye", parameters, "master", "/ws", "abc")));
+		assertFalse("node", fingerprint.equals(InputFingerprint.of("echo hi", parameters, "slave1", "/ws", "abc")));
+		assertFalse("workspace", fingerprint.equals(InputFingerprint.of("echo hi", parameters, "master", "/ws@2", "abc")));
+		assertFalse("inputs", fingerprint.equals(InputFingerprint.of("echo hi", parameters, "master", "/ws", "abd")));
+		assertFalse("no inputs", fingerprint.equals(InputFingerprint.of("echo hi", parameters, "master", "/ws", null)));
+
+		Map<String, String> changed = new HashMap<String, String>();
+		changed.put("A", "2");
+		assertFalse("parameters", fingerprint.equals(InputFingerprint.of("echo hi", changed, "master", "/ws", "abc")));
+	}
+
+	public void testOf_fieldsDoNotRunTogether() {
+		Map<String, String> first = new HashMap<String, String>();
+		first.put("A", "1B=2");
+		Map<String, String> second = new HashMap<String, String>();
+		second.put("A", "1");
+		second.put("B", "2");
+
+		assertFalse(InputFingerprint.of("", first, "", "/ws", null).equals(InputFingerprint.of("", second, "", "/ws", null)));
+	}
+
+	public void testNormalizeGlobs() {
+		assertNull(InputFingerprint.normalizeGlobs(null));
+		assertNull(InputFingerprint.normalizeGlobs("  "));
+		assertEquals("pom.xml,src/**/*.idl,lib/*.jar", InputFingerprint.normalizeGlobs(" pom.xml, src/**/*.idl\nlib/*.jar "));
+	}
+
+	public void testWorkspaceInputs() throws Exception {
+		File workspace = Util.createTempDir();
+		try {
+			write(new File(workspace, "pom.xml"), "<project/>");
+			new File(workspace, "src").mkdir();
+			write(new File(workspace, "src/a.idl"), "interface A {}");
+			write(new File(workspace, "README"), "ignored");
+
+			InputFingerprint.WorkspaceInputs inputs = new InputFingerprint.WorkspaceInputs("pom.xml src/*.idl");
+			String original = inputs.invoke(workspace, null);
+			assertEquals("stable", original, inputs.invoke(workspace, null));
+
+			write(new File(workspace, "README"), "still ignored");
+			assertEquals("unmatched files", original, inputs.invoke(workspace, null));
+
+			write(new File(workspace, "src/a.idl"), "interface A { void b(); }");
+			String edited = inputs.invoke(workspace, null);
+			assertFalse("edited", original.equals(edited));
+
+			write(new File(workspace, "src/b.idl"), "");
+			assertFalse("added", edited.equals(inputs.invoke(workspace, null)));
+		} finally {
+			Util.deleteRecursive(workspace);
+		}
+	}
+
+	private static void write(File file, String contents) throws IOException {
+		FileOutputStream output = new FileOutputStream(file);
+		try {
+			output.write(contents.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+}
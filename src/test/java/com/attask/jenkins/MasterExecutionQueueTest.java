@@ -0,0 +1,122 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class MasterExecutionQueueTest extends TestCase {
+	private static final long TIMEOUT_MILLIS = 10000;
+	private final PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+
+	public void testFree() throws Exception {
+		MasterExecutionQueue queue = new MasterExecutionQueue(2, false);
+		queue.acquire("a", logger);
+		queue.acquire("a", logger);
+		assertEquals(2, queue.getActive());
+		assertEquals(0, queue.getWaiting());
+		queue.release();
+		assertEquals(1, queue.getActive());
+		assertEquals(0, queue.getMaxWaitMillis());
+	}
+
+	/**
+	 * With one slot held, job a queues three scripts and then job b queues one. FIFO runs them in that order; fair lets b go second.
+	 */
+	public void testOrder() throws Exception {
+		assertEquals(list("a1", "a2", "a3", "b1"), runOrder(false));
+		assertEquals(list("a1", "b1", "a2", "a3"), runOrder(true));
+	}
+
+	/**
+	 * Scripts already running still count after a resize, and scripts waiting get any new slots straight away.
+	 */
+	public void testResize() throws Exception {
+		MasterExecutionQueue queue = new MasterExecutionQueue(2, false);
+		queue.acquire("a", logger);
+		queue.acquire("a", logger);
+
+		queue.resize(1, false);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread waiter = start(queue, "b", "b1", order);
+		waitForWaiting(queue, 1);
+		queue.release();
+		assertEquals("still over the new limit", 1, queue.getWaiting());
+
+		queue.resize(2, true);
+		waiter.join(TIMEOUT_MILLIS);
+		assertEquals(list("b1"), order);
+		assertEquals(0, queue.getWaiting());
+		assertEquals(1, queue.getActive());
+	}
+
+	public void testInterruptedWhileWaiting() throws Exception {
+		MasterExecutionQueue queue = new MasterExecutionQueue(1, false);
+		queue.acquire("a", logger);
+		Thread waiter = start(queue, "b", "b1", Collections.synchronizedList(new ArrayList<String>()));
+		waitForWaiting(queue, 1);
+		waiter.interrupt();
+		waiter.join(TIMEOUT_MILLIS);
+
+		assertEquals(0, queue.getWaiting());
+		queue.release();
+		assertEquals("the interrupted script doesn't keep a slot", 0, queue.getActive());
+	}
+
+	private List<String> runOrder(boolean fair) throws Exception {
+		MasterExecutionQueue queue = new MasterExecutionQueue(1, fair);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		queue.acquire("held", logger);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		String[][] arrivals = {{"a", "a1"}, {"a", "a2"}, {"a", "a3"}, {"b", "b1"}};
+		for (String[] arrival : arrivals) {
+			threads.add(start(queue, arrival[0], arrival[1], order));
+			waitForWaiting(queue, threads.size());
+		}
+
+		queue.release();
+		for (Thread thread : threads) {
+			thread.join(TIMEOUT_MILLIS);
+		}
+		assertEquals(0, queue.getActive());
+		return new ArrayList<String>(order);
+	}
+
+	/**
+	 * Starts a script that takes a slot, notes that it ran and gives the slot straight back.
+	 */
+	private Thread start(final MasterExecutionQueue queue, final String job, final String name, final List<String> order) {
+		Thread thread = new Thread(name) {
+			@Override
+			public void run() {
+				try {
+					queue.acquire(job, logger);
+				} catch (InterruptedException e) {
+					return;
+				}
+				order.add(name);
+				queue.release();
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	private static void waitForWaiting(MasterExecutionQueue queue, int waiting) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while(queue.getWaiting() < waiting) {
+			assertTrue("Timed out waiting for the queue", System.currentTimeMillis() < deadline);
+			Thread.sleep(5);
+		}
+	}
+
+	private static List<String> list(String... values) {
+		List<String> result = new ArrayList<String>();
+		Collections.addAll(result, values);
+		return result;
+	}
+}
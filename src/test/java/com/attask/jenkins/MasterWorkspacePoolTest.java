@@ -0,0 +1,42 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+
+public class MasterWorkspacePoolTest extends TestCase {
+	private File root;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = Util.createTempDir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Util.deleteRecursive(root);
+	}
+
+	public void testDeleteStalePools_leavesUnrelatedFiles() throws Exception {
+		File stale = new File(root, "pool-3/slot-0");
+		assertTrue(stale.mkdirs());
+		File unrelatedFile = new File(root, "notes.txt");
+		FileWriter writer = new FileWriter(unrelatedFile);
+		writer.write("keep me");
+		writer.close();
+		File unrelatedDirectory = new File(root, "pool-cache");
+		assertTrue(unrelatedDirectory.mkdirs());
+
+		MasterWorkspacePool.deleteStalePools(root);
+
+		assertFalse("stale pool", stale.getParentFile().exists());
+		assertTrue("unrelated file", unrelatedFile.isFile());
+		assertTrue("unrelated directory", unrelatedDirectory.isDirectory());
+	}
+
+	public void testDeleteStalePools_missingRoot() throws Exception {
+		MasterWorkspacePool.deleteStalePools(new File(root, "missing"));
+	}
+}
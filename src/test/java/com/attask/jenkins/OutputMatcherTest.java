@@ -0,0 +1,61 @@
+package com.attask.jenkins;
+
+import hudson.model.Result;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+
+public class OutputMatcherTest extends TestCase {
+	public void testEmpty() {
+		assertSame(OutputMatcher.NEVER, OutputMatcher.compile(null, " \n", false));
+		assertTrue(OutputMatcher.NEVER.isEmpty());
+		assertFalse(OutputMatcher.compile(null, null, true).isEmpty());
+	}
+
+	public void testInvalidPattern() {
+		try {
+			OutputMatcher.compile("ok\n[unclosed", null, false);
+			fail("Expected an invalid pattern to be rejected");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	public void testClassify() {
+		OutputMatcher matcher = OutputMatcher.compile("^BUILD FAILED\nOutOfMemoryError", "WARNING", false);
+		assertEquals(Result.FAILURE, matcher.classify("BUILD FAILED in 3s"));
+		assertEquals(Result.FAILURE, matcher.classify("java.lang.OutOfMemoryError: heap"));
+		assertEquals(Result.UNSTABLE, matcher.classify("[WARNING] something"));
+		assertNull(matcher.classify("the BUILD FAILED at the start"));
+	}
+
+	public void testParseSet() {
+		OutputMatcher matcher = OutputMatcher.compile(null, null, true);
+		assertEquals("VERSION", matcher.parseSet("##set VERSION=1.2.3")[0]);
+		assertEquals("a=b", matcher.parseSet("  ##set KEY = a=b ")[1]);
+		assertNull(matcher.parseSet("echo ##set VERSION=1"));
+		assertNull(OutputMatcher.compile("x", null, false).parseSet("##set VERSION=1"));
+	}
+
+	/**
+	 * Lines split across writes are still matched, and everything reaches the console unchanged.
+	 */
+	public void testFilter() throws Exception {
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		OutputMatcher.Filter filter = OutputMatcher.compile("^ERROR", "^WARN", true).filter(console, Charset.forName("UTF-8"));
+		String output = "WARN: slow\r\n##set NAME=fir";
+		filter.write(output.getBytes("UTF-8"));
+		assertEquals(Result.UNSTABLE, filter.getResult());
+		filter.write("st\nERR".getBytes("UTF-8"));
+		filter.write("OR: broken".getBytes("UTF-8"));
+		assertEquals(Result.UNSTABLE, filter.getResult());
+		filter.finish();
+
+		assertEquals(Result.FAILURE, filter.getResult());
+		assertEquals("ERROR: broken", filter.getMatchedLine());
+		assertEquals(Collections.singletonMap("NAME", "first"), filter.getSet());
+		assertEquals(output + "st\nERROR: broken", console.toString("UTF-8"));
+	}
+}
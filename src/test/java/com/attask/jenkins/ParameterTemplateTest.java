@@ -0,0 +1,52 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ParameterTemplateTest extends TestCase {
+	private Map<String, String> variables;
+
+	@Override
+	protected void setUp() throws Exception {
+		variables = new HashMap<String, String>();
+		variables.put("NAME", "world");
+		variables.put("A_1", "one");
+		variables.put("DOTTED.NAME", "dotted");
+	}
+
+	public void testExpand() {
+		assertEquals("hello world", expand("hello $NAME"));
+		assertEquals("hello world!", expand("hello ${NAME}!"));
+		assertEquals("one-one", expand("$A_1-${A_1}"));
+		assertEquals("dotted", expand("${DOTTED.NAME}"));
+		assertEquals("world.NAME", expand("$NAME.NAME"));
+	}
+
+	public void testLiterals() {
+		assertEquals("", expand(""));
+		assertEquals("", expand(null));
+		assertEquals("no variables", expand("no variables"));
+		assertEquals("costs $5", expand("costs $5"));
+		assertEquals("trailing $", expand("trailing $"));
+		assertEquals("escaped $NAME", expand("escaped $$NAME"));
+		assertEquals("${}", expand("${}"));
+		assertEquals("${NAME", expand("${NAME"));
+	}
+
+	public void testUndefinedLeftAlone() {
+		assertEquals("$MISSING and ${MISSING}", expand("$MISSING and ${MISSING}"));
+	}
+
+	public void testVariableNames() {
+		assertEquals(Arrays.asList("NAME", "A_1", "DOTTED.NAME"), ParameterTemplate.compile("$NAME ${A_1} ${DOTTED.NAME} $$ESCAPED").getVariableNames());
+		assertEquals(Collections.<String>emptyList(), ParameterTemplate.compile("plain").getVariableNames());
+	}
+
+	private String expand(String value) {
+		return ParameterTemplate.compile(value).expand(variables);
+	}
+}
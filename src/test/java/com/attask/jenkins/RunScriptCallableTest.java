@@ -0,0 +1,39 @@
+package com.attask.jenkins;
+
+import hudson.FilePath;
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+public class RunScriptCallableTest extends TestCase {
+	private static final String[] COMMAND_LINE = {"sh", RunScriptCallable.SCRIPT_PLACEHOLDER};
+
+	/**
+	 * Runs a script through the whole cycle with a real shell: its output and injected properties come back, and its file is gone afterward.
+	 */
+	public void testCall() throws Exception {
+		if(File.pathSeparatorChar != ':') {
+			return; //needs sh
+		}
+		File workspace = Util.createTempDir();
+		try {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			String contents = "echo \"hello $NAME\"\necho \"GREETING=hello $NAME\" > injected.properties\nexit 3\n";
+			RunScriptCallable callable = new RunScriptCallable(new FilePath(workspace), null, contents, ".sh", COMMAND_LINE,
+					Collections.singletonMap("NAME", "world"), output, "injected.properties", new InjectedPropertiesReader(10, 1024));
+
+			RunScriptCallable.Outcome outcome = callable.call();
+			assertEquals(3, outcome.getExitCode());
+			assertTrue("the launcher echoes the command line first", output.toString().endsWith("\nhello world\n"));
+			Map<String, String> injected = outcome.getInjected();
+			assertEquals(Collections.singletonMap("GREETING", "hello world"), injected);
+			assertEquals("only the injected file is left", 1, workspace.list().length);
+		} finally {
+			Util.deleteRecursive(workspace);
+		}
+	}
+}
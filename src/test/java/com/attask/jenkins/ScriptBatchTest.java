@@ -0,0 +1,124 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.*;
+
+public class ScriptBatchTest extends TestCase {
+	private static final String TOKEN = "\u0001script-batch-test";
+	private static final String[] COMMAND_LINE = {"sh", ScriptBatch.SCRIPT_PLACEHOLDER};
+
+	public void testCommonEnvironment() {
+		List<ScriptBatch.Entry> entries = Arrays.asList(
+				entry("echo", false, env("PATH", "/bin", "A", "1", "B", "2")),
+				entry("echo", false, env("PATH", "/bin", "A", "1", "B", "3")),
+				entry("echo", false, env("PATH", "/bin", "A", "1"))
+		);
+		assertEquals(env("PATH", "/bin", "A", "1"), ScriptBatch.commonEnvironment(entries));
+	}
+
+	public void testCanBeSet() {
+		List<ScriptBatch.Entry> entries = Arrays.asList(
+				entry("echo", false, env("PATH", "/bin", "my.password", "a")),
+				entry("echo", false, env("PATH", "/bin", "my.password", "b"))
+		);
+		assertFalse(ScriptBatch.canBeSet(entries, ScriptBatch.commonEnvironment(entries)));
+
+		entries = Arrays.asList(
+				entry("echo", false, env("dotted.name", "same", "PASSWORD", "a")),
+				entry("echo", false, env("dotted.name", "same", "PASSWORD", "b"))
+		);
+		assertTrue(ScriptBatch.canBeSet(entries, ScriptBatch.commonEnvironment(entries)));
+	}
+
+	/**
+	 * Runs a generated runner with a real shell: each script gets its own variables without them being passed as arguments,
+	 * and the runner stops after a script that doesn't succeed, even if it doesn't abort.
+	 */
+	public void testRunner() throws Exception {
+		if(File.pathSeparatorChar != ':') {
+			return; //needs sh
+		}
+		File workspace = Util.createTempDir();
+		try {
+			List<ScriptBatch.Entry> entries = Arrays.asList(
+					entry("echo \"first $NAME\"", true, env("SHARED", "x", "NAME", "it's one")),
+					entry("echo \"second $NAME\"\nexit 3", false, env("SHARED", "x", "NAME", "two")),
+					entry("echo never", true, env("SHARED", "x"))
+			);
+			Map<String, String> base = ScriptBatch.commonEnvironment(entries);
+			String runner = ScriptBatch.runner(entries, workspace.getCanonicalPath(), base, TOKEN);
+			assertFalse("variables aren't passed as arguments", runner.contains("env 'NAME="));
+
+			ProcessBuilder processBuilder = new ProcessBuilder("sh", "-s").redirectErrorStream(true);
+			processBuilder.environment().putAll(base);
+			Process process = processBuilder.start();
+			OutputStream stdin = process.getOutputStream();
+			stdin.write(runner.getBytes("UTF-8"));
+			stdin.close();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			Util.copyStream(process.getInputStream(), output);
+			assertEquals("runner exit code", 0, process.waitFor());
+
+			String expected = TOKEN + " start 0\n"
+					+ "first it's one\n"
+					+ TOKEN + " end 0 0\n"
+					+ TOKEN + " start 1\n"
+					+ "second two\n"
+					+ TOKEN + " end 1 3\n";
+			assertEquals(expected, output.toString("UTF-8"));
+		} finally {
+			Util.deleteRecursive(workspace);
+		}
+	}
+
+	/**
+	 * A runner that can't create its temporary directory exits before starting any script, which the batch has to notice.
+	 */
+	public void testRunner_noTempDirectory() throws Exception {
+		if(File.pathSeparatorChar != ':') {
+			return; //needs sh
+		}
+		File workspace = Util.createTempDir();
+		try {
+			List<ScriptBatch.Entry> entries = Arrays.asList(
+					entry("echo first", true, env("SHARED", "x")),
+					entry("echo second", true, env("SHARED", "x"))
+			);
+			Map<String, String> base = ScriptBatch.commonEnvironment(entries);
+			String runner = ScriptBatch.runner(entries, workspace.getCanonicalPath(), base, TOKEN);
+
+			ProcessBuilder processBuilder = new ProcessBuilder("sh", "-s").redirectErrorStream(true);
+			processBuilder.environment().putAll(base);
+			processBuilder.environment().put("TMPDIR", new File(workspace, "missing").getPath());
+			Process process = processBuilder.start();
+			OutputStream stdin = process.getOutputStream();
+			stdin.write(runner.getBytes("UTF-8"));
+			stdin.close();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			Util.copyStream(process.getInputStream(), output);
+			assertEquals("runner exit code", 1, process.waitFor());
+			assertFalse("no script started", output.toString("UTF-8").contains(TOKEN));
+		} finally {
+			Util.deleteRecursive(workspace);
+		}
+	}
+
+	private static ScriptBatch.Entry entry(String contents, boolean abortOnFailure, Map<String, String> environment) {
+		ScriptBuilder script = new ScriptBuilder("/userContent/script.sh", null, abortOnFailure, ErrorMode.NON_ZERO, null, ErrorMode.NONE, null,
+				null, false, null, false, null, null, null, false, null, null, null, null, false);
+		return new ScriptBatch.Entry(script, "script.sh", contents, COMMAND_LINE, environment);
+	}
+
+	private static Map<String, String> env(String... keysAndValues) {
+		Map<String, String> result = new HashMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			result.put(keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return result;
+	}
+}
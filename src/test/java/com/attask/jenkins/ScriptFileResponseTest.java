@@ -0,0 +1,79 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+public class ScriptFileResponseTest extends TestCase {
+	public void testParseRange() {
+		assertRange("bytes=0-99", 1000, 0, 99);
+		assertRange("bytes=500-", 1000, 500, 999);
+		assertRange("bytes=-100", 1000, 900, 999);
+		assertRange("bytes=900-5000", 1000, 900, 999);
+		assertRange("bytes=-5000", 1000, 0, 999);
+	}
+
+	public void testParseRange_ignored() {
+		assertEquals(0, ScriptFileResponse.parseRange("bytes=0-1,5-6", 1000).length);
+		assertEquals(0, ScriptFileResponse.parseRange("lines=1-2", 1000).length);
+		assertEquals(0, ScriptFileResponse.parseRange("bytes=-", 1000).length);
+	}
+
+	public void testParseRange_unsatisfiable() {
+		assertNull(ScriptFileResponse.parseRange("bytes=1000-", 1000));
+		assertNull(ScriptFileResponse.parseRange("bytes=50-10", 1000));
+		assertNull(ScriptFileResponse.parseRange("bytes=-0", 1000));
+	}
+
+	public void testMatch() {
+		String eTag = "\"3e8-13d1b1c2f00\"";
+		String gzipETag = ScriptFileResponse.gzipETagOf(eTag);
+		assertEquals("\"3e8-13d1b1c2f00-gzip\"", gzipETag);
+
+		assertEquals(eTag, ScriptFileResponse.match(eTag, eTag, true));
+		assertEquals(eTag, ScriptFileResponse.match("W/" + eTag, eTag, true));
+		assertEquals(eTag, ScriptFileResponse.match("*", eTag, true));
+		assertEquals(gzipETag, ScriptFileResponse.match("\"other\", " + gzipETag, eTag, true));
+		assertNull(ScriptFileResponse.match("\"3e8-13d1b1c2f01\"", eTag, true));
+		assertNull(ScriptFileResponse.match("\"3e8-13d1b1c2f01-gzip\"", eTag, true));
+		assertNull(ScriptFileResponse.match("W/" + eTag, eTag, false));
+		assertEquals(gzipETag, ScriptFileResponse.match(gzipETag, eTag, false));
+	}
+
+	/**
+	 * Two saves of the same length in the same second have to get different ETags, or If-Match can't tell them apart.
+	 */
+	public void testETagOf_contents() throws Exception {
+		File directory = Util.createTempDir();
+		try {
+			File first = write(new File(directory, "first.sh"), "echo one");
+			File second = write(new File(directory, "second.sh"), "echo two");
+			File same = write(new File(directory, "same.sh"), "echo one");
+			assertTrue(second.setLastModified(first.lastModified()));
+
+			assertFalse(ScriptFileResponse.eTagOf(first).equals(ScriptFileResponse.eTagOf(second)));
+			assertEquals(ScriptFileResponse.eTagOf(first), ScriptFileResponse.eTagOf(same));
+		} finally {
+			Util.deleteRecursive(directory);
+		}
+	}
+
+	private static File write(File file, String contents) throws Exception {
+		FileWriter writer = new FileWriter(file);
+		try {
+			writer.write(contents);
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+
+	private static void assertRange(String header, long length, long start, long end) {
+		long[] range = ScriptFileResponse.parseRange(header, length);
+		assertNotNull(header, range);
+		assertEquals(header, Arrays.toString(new long[]{start, end}), Arrays.toString(range));
+	}
+}
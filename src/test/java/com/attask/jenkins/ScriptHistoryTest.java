@@ -0,0 +1,42 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ScriptHistoryTest extends TestCase {
+	public void testEntryRoundTrip() {
+		ScriptHistory.Entry entry = new ScriptHistory.Entry(12, 1361900000000L, "/jenkins/userContent/has\ttab.sh", 1534, 3, "UNSTABLE");
+		String line = entry.toLine();
+		assertTrue("one line", line.endsWith("\n") && line.indexOf('\n') == line.length() - 1);
+
+		ScriptHistory.Entry parsed = ScriptHistory.Entry.parse(line.substring(0, line.length() - 1));
+		assertNotNull(parsed);
+		assertEquals(12, parsed.getBuildNumber());
+		assertEquals(1361900000000L, parsed.getStartTime());
+		assertEquals("/jenkins/userContent/has tab.sh", parsed.getScriptName());
+		assertEquals(1534, parsed.getDuration());
+		assertEquals(3, parsed.getExitCode());
+		assertEquals("UNSTABLE", parsed.getResult());
+	}
+
+	public void testParse_invalid() {
+		assertNull(ScriptHistory.Entry.parse(""));
+		assertNull(ScriptHistory.Entry.parse("1\t2\tscript.sh\t4\t5"));
+		assertNull(ScriptHistory.Entry.parse("x\t2\tscript.sh\t4\t5\tSUCCESS"));
+	}
+
+	public void testTrend() {
+		List<ScriptHistory.Entry> entries = new ArrayList<ScriptHistory.Entry>();
+		for (int i = 1; i <= 20; i++) {
+			entries.add(new ScriptHistory.Entry(i, 0, "script.sh", i * 100, 0, "SUCCESS"));
+		}
+		ScriptHistory.Trend trend = new ScriptHistory.Trend("script.sh", entries);
+
+		assertEquals("runs", 20, trend.getRuns());
+		assertEquals("p50", 1000, trend.getP50());
+		assertEquals("p95", 1900, trend.getP95());
+		assertEquals("last", 20, trend.getLast().getBuildNumber());
+	}
+}
@@ -0,0 +1,82 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ScriptIndexTest extends TestCase {
+	private File root;
+	private ScriptIndex index;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = Util.createTempDir();
+		create("deploy/build.sh");
+		create("deploy/rebuild.sh");
+		create("build/compile.sh");
+		create("Build.sh");
+		create("notes.txt");
+		index = new ScriptIndex(root, FileTypeMatcher.compile(".sh"));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Util.deleteRecursive(root);
+	}
+
+	public void testSearch() {
+		ScriptIndex.SearchResult result = index.search("build", 10);
+		assertEquals("total", 4, result.getTotal());
+		assertEquals("prefix matches first", Arrays.asList("Build.sh", "build/compile.sh", "deploy/build.sh", "deploy/rebuild.sh"), result.getPaths());
+	}
+
+	public void testSearch_limit() {
+		ScriptIndex.SearchResult result = index.search("", 2);
+		assertEquals("total", 4, result.getTotal());
+		assertEquals("limited", 2, result.getPaths().size());
+	}
+
+	public void testSearch_seesNewScripts() throws IOException {
+		assertEquals(0, index.search("new", 10).getTotal());
+		create("new.sh");
+		index.invalidate(new File(root, "new.sh").getPath());
+		assertEquals(Arrays.asList("new.sh"), index.search("new", 10).getPaths());
+	}
+
+	public void testFind_relative() {
+		assertNotNull(index.find("deploy/build.sh"));
+		assertNull(index.find("notes.txt"));
+		assertNull(index.find("../outside.sh"));
+	}
+
+	public void testFind_otherSpellingsShareAnEntry() throws IOException {
+		int indexed = index.getScripts().size();
+		Script script = index.find("deploy/build.sh");
+		assertSame(script, index.find("build/../deploy/build.sh"));
+		assertSame(script, index.find(new File(root, "deploy/./build.sh").getPath()));
+		assertEquals(indexed, index.getScripts().size());
+	}
+
+	public void testFind_hiddenDirectory() throws IOException {
+		create(".git/hooks/pre-commit.sh");
+		assertNull(index.find(".git/hooks/pre-commit.sh"));
+	}
+
+	public void testRelativize() {
+		assertEquals("deploy/build.sh", ScriptIndex.relativize(root, new File(root, "deploy/build.sh").getAbsolutePath()));
+		assertEquals("deploy/build.sh", ScriptIndex.relativize(root, " deploy/build.sh "));
+		String outside = new File(root.getParentFile(), "outside.sh").getAbsolutePath();
+		assertEquals(outside, ScriptIndex.relativize(root, outside));
+	}
+
+	private void create(String path) throws IOException {
+		File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		if(!file.createNewFile()) {
+			throw new IOException("Unable to create " + file);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package com.attask.jenkins;
+
+import junit.framework.TestCase;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class ScriptMetricsTest extends TestCase {
+	public void testBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			int bucket = ScriptMetrics.Histogram.bucketFor(value);
+			assertTrue(value + " is above its bucket", value <= ScriptMetrics.Histogram.upperBoundOf(bucket));
+			if(bucket > 0) {
+				assertTrue(value + " belongs in an earlier bucket", value > ScriptMetrics.Histogram.upperBoundOf(bucket - 1));
+			}
+		}
+	}
+
+	public void testPercentiles() {
+		ScriptMetrics.Histogram histogram = new ScriptMetrics.Histogram();
+		assertEquals("empty", 0, histogram.percentile(0.5));
+
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+
+		assertEquals("count", 1000, histogram.getCount());
+		assertEquals("sum", 500500, histogram.getSum());
+		assertEquals("max", 1000, histogram.getMax());
+		assertWithin("p50", 500, histogram.percentile(0.5));
+		assertWithin("p95", 950, histogram.percentile(0.95));
+		assertWithin("p99", 990, histogram.percentile(0.99));
+		assertEquals("p100", 1000, histogram.percentile(1.0));
+	}
+
+	public void testWriteTo() {
+		ScriptMetrics metrics = new ScriptMetrics();
+		ScriptMetrics.Sample sample = metrics.start("/userContent/build.sh", "slave1");
+		sample.record(ScriptMetrics.Phase.PROCESS, System.nanoTime());
+		metrics.finish(sample, "SUCCESS");
+
+		StringWriter output = new StringWriter();
+		metrics.writeTo(new PrintWriter(output));
+		String text = output.toString();
+
+		String labels = "script=\"/userContent/build.sh\",node=\"slave1\",outcome=\"SUCCESS\"";
+		assertTrue(text, text.contains("script_phase_millis_count{phase=\"process\"," + labels + "} 1"));
+		assertTrue(text, text.contains("script_phase_millis_count{phase=\"total\"," + labels + "} 1"));
+		assertTrue(text, text.contains("script_runs_total{" + labels + "} 1"));
+	}
+
+	private static void assertWithin(String message, long expected, long actual) {
+		assertTrue(message + ": expected about " + expected + " but was " + actual, actual >= expected && actual <= expected * 1.125);
+	}
+}
@@ -0,0 +1,70 @@
+package com.attask.jenkins;
+
+import hudson.Util;
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class WarmShellTest extends TestCase {
+	private static final String MARKER = "\u0001script-done-test ";
+
+	public void testQuote() {
+		assertEquals("'plain'", WarmShell.quote("plain"));
+		assertEquals("'it'\\''s'", WarmShell.quote("it's"));
+	}
+
+	public void testCanSet() {
+		Map<String, String> envVars = new LinkedHashMap<String, String>();
+		envVars.put("PATH", "/bin");
+		envVars.put("_private2", "x");
+		assertTrue(WarmShell.canSet(envVars));
+		envVars.put("my.password", "secret");
+		assertFalse(WarmShell.canSet(envVars));
+	}
+
+	public void testIndexOf() throws Exception {
+		assertEquals(3, WarmShell.indexOf("abcdef".getBytes("US-ASCII"), "def".getBytes("US-ASCII")));
+		assertEquals(-1, WarmShell.indexOf("abcde".getBytes("US-ASCII"), "def".getBytes("US-ASCII")));
+		assertEquals(-1, WarmShell.indexOf("de".getBytes("US-ASCII"), "def".getBytes("US-ASCII")));
+	}
+
+	/**
+	 * Sends two commands to a real shell to make sure each reports its own exit code and doesn't see the other's environment.
+	 */
+	public void testCommand() throws Exception {
+		if(File.pathSeparatorChar != ':') {
+			return; //needs sh
+		}
+		File workspace = Util.createTempDir();
+		try {
+			Map<String, String> first = new LinkedHashMap<String, String>();
+			first.put("GREETING", "it's $HOME");
+			Map<String, String> second = new LinkedHashMap<String, String>();
+
+			String[] commandLine = {"sh", "-c", "pwd; echo \"[$GREETING]\"; exit 3"};
+			String commands = WarmShell.command(workspace.getCanonicalPath(), commandLine, first, MARKER)
+					+ WarmShell.command(workspace.getCanonicalPath(), new String[]{"sh", "-c", "echo \"[$GREETING]\""}, second, MARKER);
+
+			assertFalse("variables aren't passed as arguments", commands.contains("env 'GREETING="));
+
+			Process process = new ProcessBuilder("sh", "-s").redirectErrorStream(true).start();
+			OutputStream stdin = process.getOutputStream();
+			stdin.write(commands.getBytes("UTF-8"));
+			stdin.close();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			Util.copyStream(process.getInputStream(), output);
+			process.waitFor();
+
+			String expected = workspace.getCanonicalPath() + "\n"
+					+ "[it's $HOME]\n"
+					+ MARKER + "3\n"
+					+ "[]\n"
+					+ MARKER + "0\n";
+			assertEquals(expected, output.toString("UTF-8"));
+		} finally {
+			Util.deleteRecursive(workspace);
+		}
+	}
+}